@@ -0,0 +1,62 @@
+package db.migration;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * Fills the proto column added by V6 from the jsonb document of every existing row. The JSON to protobuf conversion
+ * needs the message classes, so it cannot be done in SQL. Fields unknown to the message classes, e.g. left behind by
+ * an older version of a document, are dropped rather than failing the migration.
+ */
+public class V7__BackfillProtobufDocuments extends BaseJavaMigration {
+
+    private static final JsonFormat.Parser PARSER = JsonFormat.parser().ignoringUnknownFields();
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        backfill(connection, "role", "roleId", Role::newBuilder);
+        backfill(connection, "user_permission", "userId", User::newBuilder);
+        backfill(connection, "UserGroup", "groupId", Group::newBuilder);
+    }
+
+    static void backfill(Connection connection, String table, String idColumn, Supplier<Message.Builder> newBuilder) throws SQLException {
+        try (Statement select = connection.createStatement();
+             PreparedStatement update = connection.prepareStatement("UPDATE " + table + " SET proto = ? WHERE " + idColumn + " = ?")) {
+            try (ResultSet resultSet = select.executeQuery("SELECT " + idColumn + ", document::text FROM " + table + " WHERE proto IS NULL")) {
+                while (resultSet.next()) {
+                    String id = resultSet.getString(1);
+                    update.setBytes(1, jsonToProto(table, id, resultSet.getString(2), newBuilder.get()));
+                    update.setString(2, id);
+                    update.addBatch();
+                }
+            }
+            update.executeBatch();
+        }
+        try (Statement alter = connection.createStatement()) {
+            alter.execute("ALTER TABLE " + table + " ALTER COLUMN proto SET NOT NULL");
+        }
+    }
+
+    static byte[] jsonToProto(String table, String id, String json, Message.Builder builder) {
+        try {
+            PARSER.merge(json, builder);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Document " + id + " in " + table + " could not be converted to protobuf", e);
+        }
+        return builder.build().toByteArray();
+    }
+}
@@ -24,6 +24,8 @@ module no.ssb.useraccess {
     requires no.ssb.helidon.media.protobuf.json.server;
     requires java.logging;
     requires io.helidon.dbclient;
+    requires io.helidon.dbclient.jdbc;
+    requires com.zaxxer.hikari;
 
     /*
      * Not so well documented requirements are declared here to force fail-fast with proper error message if
@@ -1,6 +1,7 @@
 package no.ssb.useraccess;
 
 
+import io.helidon.common.http.Http;
 import io.helidon.common.reactive.Single;
 import io.helidon.config.Config;
 import io.helidon.dbclient.DbClient;
@@ -13,17 +14,36 @@ import io.helidon.webserver.WebServer;
 import io.helidon.webserver.WebTracingConfig;
 import io.helidon.webserver.accesslog.AccessLogSupport;
 import io.opentracing.Tracer;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
 import no.ssb.useraccess.access.AccessHttpService;
+import no.ssb.useraccess.access.AccessRepository;
 import no.ssb.useraccess.access.AccessService;
+import no.ssb.useraccess.access.AuthorizationSource;
+import no.ssb.useraccess.access.CachingAuthorizationSource;
+import no.ssb.useraccess.access.DatabaseAuthorizationSource;
+import no.ssb.useraccess.access.DecisionCache;
+import no.ssb.useraccess.access.SingleQueryAuthorizationSource;
+import no.ssb.useraccess.access.SnapshotAuthorizationSource;
+import no.ssb.useraccess.access.UnknownUserCache;
+import no.ssb.useraccess.access.UserDependencyTracker;
 import no.ssb.useraccess.autocreate.AutoCreateService;
+import no.ssb.useraccess.db.AdaptivePoolSizer;
+import no.ssb.useraccess.db.Bulkhead;
+import no.ssb.useraccess.db.BulkheadFullException;
+import no.ssb.useraccess.db.InstrumentedConnectionPool;
 import no.ssb.useraccess.group.GroupHttpService;
 import no.ssb.useraccess.group.GroupRepository;
 import no.ssb.useraccess.maintenance.MaintenanceHttpService;
 import no.ssb.useraccess.maintenance.MaintenanceRepository;
+import no.ssb.useraccess.permission.EffectivePermissions;
 import no.ssb.useraccess.role.RoleHttpService;
 import no.ssb.useraccess.role.RoleRepository;
 import no.ssb.useraccess.user.UserHttpService;
 import no.ssb.useraccess.user.UserRepository;
+import no.ssb.useraccess.util.BatchLoader;
+import no.ssb.useraccess.util.ConcurrencyLimiter;
+import no.ssb.useraccess.util.EntityCache;
 import no.ssb.helidon.application.DefaultHelidonApplication;
 import no.ssb.helidon.application.HelidonApplication;
 import no.ssb.helidon.media.protobuf.ProtobufJsonSupport;
@@ -31,7 +51,7 @@ import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
+import java.time.Duration;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -69,10 +89,25 @@ public class UserAccessApplication extends DefaultHelidonApplication implements
         // schema migration using flyway and jdbc
         migrateDatabaseSchema(config.get("flyway"));
 
-        DbClient dbClient = DbClient.builder()
-                .config(config.get("db"))
-                // .mapperProvider(new JsonProcessingMapperProvider())
-                .build();
+        // the pools are built here rather than from db.connection, so that they can be instrumented and resized. With
+        // bulkheads, access decisions, listings of who is granted access to a path and admin requests each get their
+        // own pool and threads, so that one class of traffic cannot starve the others
+        Config dbConfig = config.get("db");
+        Config bulkheadsConfig = dbConfig.get("bulkheads");
+        Bulkhead decisionBulkhead;
+        Bulkhead listingBulkhead;
+        Bulkhead adminBulkhead;
+        if (bulkheadsConfig.get("enabled").asBoolean().orElse(false)) {
+            decisionBulkhead = createBulkhead("dbDecision", dbConfig, bulkheadsConfig.get("decision"));
+            listingBulkhead = createBulkhead("dbListing", dbConfig, bulkheadsConfig.get("listing"));
+            adminBulkhead = createBulkhead("dbAdmin", dbConfig, bulkheadsConfig.get("admin"));
+        } else {
+            decisionBulkhead = createBulkhead("db", dbConfig, dbConfig);
+            listingBulkhead = decisionBulkhead;
+            adminBulkhead = decisionBulkhead;
+        }
+        DbClient dbClient = adminBulkhead.getDbClient();
+        ScheduledExecutorService timeoutService = adminBulkhead.getTimeoutService();
 
         HealthSupport health = HealthSupport.builder()
                 .addLiveness(HealthChecks.healthChecks())
@@ -80,21 +115,47 @@ public class UserAccessApplication extends DefaultHelidonApplication implements
                 .build();
 
         // repositories
-        UserRepository userRepository = new UserRepository(dbClient);
-        GroupRepository groupRepository = new GroupRepository(dbClient);
-        RoleRepository roleRepository = new RoleRepository(dbClient);
-        MaintenanceRepository maintenanceRepository = new MaintenanceRepository(roleRepository, groupRepository, userRepository);
+        Config cacheConfig = config.get("repository.cache");
+        Config effectivePermissionsConfig = config.get("repository.effective-permissions");
+        EffectivePermissions effectivePermissions = new EffectivePermissions(dbClient, effectivePermissionsConfig.get("enabled").asBoolean().orElse(false));
+        if (effectivePermissions.isEnabled() && effectivePermissionsConfig.get("rebuild-on-startup").asBoolean().orElse(true)) {
+            // writes may have been made while maintenance was disabled
+            effectivePermissions.rebuild().await(effectivePermissionsConfig.get("rebuild-timeout-seconds").asInt().orElse(60), TimeUnit.SECONDS);
+        }
+        UserRepository userRepository = new UserRepository(dbClient, createEntityCache(cacheConfig), effectivePermissions);
+        GroupRepository groupRepository = new GroupRepository(dbClient, createEntityCache(cacheConfig), effectivePermissions);
+        RoleRepository roleRepository = new RoleRepository(dbClient, createEntityCache(cacheConfig));
+        MaintenanceRepository maintenanceRepository = new MaintenanceRepository(roleRepository, groupRepository, userRepository, effectivePermissions);
+        // views that share the caches and change listeners of the repositories above, reading through other bulkheads
+        DbClient decisionClient = decisionBulkhead.getDbClient();
+        UserRepository decisionUserRepository = userRepository.withClient(decisionClient);
+        GroupRepository decisionGroupRepository = groupRepository.withClient(decisionClient);
+        RoleRepository decisionRoleRepository = roleRepository.withClient(decisionClient);
+        AccessRepository accessRepository = new AccessRepository(decisionClient, effectivePermissions.isEnabled());
+        DbClient listingClient = listingBulkhead.getDbClient();
+        AccessRepository listingAccessRepository = listingClient == decisionClient ? accessRepository
+                : new AccessRepository(listingClient, effectivePermissions.isEnabled());
         put(DbClient.class, dbClient);
         put(UserRepository.class, userRepository);
         put(GroupRepository.class, groupRepository);
         put(RoleRepository.class, roleRepository);
         put(MaintenanceRepository.class, maintenanceRepository);
+        put(AccessRepository.class, accessRepository);
 
-        //get autocreate file
-        AutoCreateService autoCreateService = new AutoCreateService(config.get("autocreate"), userRepository, groupRepository, roleRepository);
+        // users are auto-created while an access decision waits for them, so through the decision bulkhead
+        AutoCreateService autoCreateService = new AutoCreateService(config.get("autocreate"), decisionUserRepository, decisionGroupRepository, decisionRoleRepository);
         // services
-        AccessService accessService = new AccessService(userRepository, groupRepository, roleRepository, autoCreateService);
-        ScheduledExecutorService timeoutService = Executors.newSingleThreadScheduledExecutor();
+        UserDependencyTracker dependencyTracker = new UserDependencyTracker(userRepository, groupRepository, roleRepository);
+        AuthorizationSource authorizationSource = createAuthorizationSource(config.get("access"), decisionBulkhead.getBackgroundService(), dependencyTracker,
+                accessRepository, decisionUserRepository, decisionGroupRepository, decisionRoleRepository);
+        put(AuthorizationSource.class, authorizationSource);
+        DecisionCache decisionCache = createDecisionCache(config.get("access.decision-cache"), dependencyTracker);
+        UnknownUserCache unknownUserCache = createUnknownUserCache(config.get("access.unknown-user-cache"), decisionUserRepository);
+        // the snapshot source already holds every user, group and role in memory
+        boolean snapshotSource = "snapshot".equals(config.get("access.source").asString().orElse("database"));
+        AccessService accessService = new AccessService(authorizationSource, decisionCache, unknownUserCache, snapshotSource ? null : listingAccessRepository,
+                userRepository.withClient(listingClient), groupRepository.withClient(listingClient), roleRepository.withClient(listingClient), autoCreateService,
+                config.get("access.batch-resolve-concurrency").asInt().orElse(16));
 
         // routing
         Routing routing = Routing.builder()
@@ -106,7 +167,11 @@ public class UserAccessApplication extends DefaultHelidonApplication implements
                 .register("/user", new UserHttpService(timeoutService, userRepository))
                 .register("/group", new GroupHttpService(timeoutService, groupRepository))
                 .register("/maintenance", new MaintenanceHttpService(timeoutService, maintenanceRepository))
-                .register("/access", new AccessHttpService(timeoutService, accessService))
+                .register("/access", new AccessHttpService(decisionBulkhead.getTimeoutService(), listingBulkhead.getTimeoutService(), accessService,
+                        createConcurrencyLimiter(config.get("access.concurrency-limit")),
+                        Duration.ofSeconds(config.get("access.concurrency-limit.retry-after-seconds").asInt().orElse(1))))
+                // JDBC calls rejected by a full bulkhead as a handler sets up its statements
+                .error(BulkheadFullException.class, (req, res, e) -> res.status(Http.Status.SERVICE_UNAVAILABLE_503).send(e.getMessage()))
                 .build();
         put(Routing.class, routing);
 
@@ -120,6 +185,109 @@ public class UserAccessApplication extends DefaultHelidonApplication implements
         put(WebServer.class, webServer);
     }
 
+    private AuthorizationSource createAuthorizationSource(Config accessConfig, ScheduledExecutorService scheduler, UserDependencyTracker dependencyTracker,
+                                                          AccessRepository accessRepository, UserRepository userRepository,
+                                                          GroupRepository groupRepository, RoleRepository roleRepository) {
+        Config cacheConfig = accessConfig.get("resolved-user-cache");
+        if (!cacheConfig.get("enabled").asBoolean().orElse(false)) {
+            return createUncachedAuthorizationSource(accessConfig, scheduler, accessRepository, userRepository, groupRepository, roleRepository);
+        }
+        return new CachingAuthorizationSource(createUncachedAuthorizationSource(accessConfig, scheduler, accessRepository, userRepository, groupRepository, roleRepository),
+                dependencyTracker,
+                cacheConfig.get("max-weight").asLong().orElse(1000000L),
+                Duration.ofSeconds(cacheConfig.get("ttl-seconds").asInt().orElse(60)));
+    }
+
+    private AuthorizationSource createUncachedAuthorizationSource(Config accessConfig, ScheduledExecutorService scheduler, AccessRepository accessRepository,
+                                                                  UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository) {
+        String source = accessConfig.get("source").asString().orElse("database");
+        switch (source) {
+            case "database":
+                Config batchingConfig = accessConfig.get("batching");
+                if (!batchingConfig.get("enabled").asBoolean().orElse(false)) {
+                    return new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository);
+                }
+                Duration maxWait = Duration.ofMillis(batchingConfig.get("max-wait-millis").asInt().orElse(2));
+                int maxBatchSize = batchingConfig.get("max-batch-size").asInt().orElse(500);
+                return new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository,
+                        new BatchLoader<>("accessGroupLoader", groupRepository::getGroups, Group::getGroupId, scheduler, maxWait, maxBatchSize),
+                        new BatchLoader<>("accessRoleLoader", roleRepository::getRoles, Role::getRoleId, scheduler, maxWait, maxBatchSize));
+            case "single-query":
+                return new SingleQueryAuthorizationSource(accessRepository, userRepository, groupRepository, roleRepository);
+            case "snapshot":
+                SnapshotAuthorizationSource snapshotSource = new SnapshotAuthorizationSource(userRepository, groupRepository, roleRepository);
+                snapshotSource.reload().await(accessConfig.get("snapshot.load-timeout-seconds").asInt().orElse(60), TimeUnit.SECONDS);
+                // the reload is the only way writes made by other instances reach the snapshot
+                int reloadIntervalSeconds = accessConfig.get("snapshot.reload-interval-seconds").asInt().orElse(60);
+                if (reloadIntervalSeconds <= 0) {
+                    throw new IllegalArgumentException("Expected access.snapshot.reload-interval-seconds > 0, got " + reloadIntervalSeconds);
+                }
+                scheduler.scheduleWithFixedDelay(() -> snapshotSource.reload()
+                                .subscribe(snapshot -> {
+                                }, t -> LOG.error("While reloading authorization snapshot", t)),
+                        reloadIntervalSeconds, reloadIntervalSeconds, TimeUnit.SECONDS);
+                return snapshotSource;
+            default:
+                throw new IllegalArgumentException("Unknown access.source: " + source);
+        }
+    }
+
+    private UnknownUserCache createUnknownUserCache(Config cacheConfig, UserRepository userRepository) {
+        int maxSize = cacheConfig.get("max-size").asInt().orElse(0);
+        if (maxSize <= 0) {
+            return null;
+        }
+        return new UnknownUserCache(userRepository, maxSize, Duration.ofSeconds(cacheConfig.get("ttl-seconds").asInt().orElse(60)));
+    }
+
+    private ConcurrencyLimiter createConcurrencyLimiter(Config limitConfig) {
+        if (!limitConfig.get("enabled").asBoolean().orElse(false)) {
+            return null;
+        }
+        return new ConcurrencyLimiter("access",
+                limitConfig.get("initial-limit").asInt().orElse(20),
+                limitConfig.get("min-limit").asInt().orElse(2),
+                limitConfig.get("max-limit").asInt().orElse(200),
+                Duration.ofMillis(limitConfig.get("latency-threshold-millis").asInt().orElse(250)),
+                limitConfig.get("backoff-ratio").asDouble().orElse(0.9));
+    }
+
+    private <T> EntityCache<T> createEntityCache(Config cacheConfig) {
+        return new EntityCache<>(cacheConfig.get("max-size").asInt().orElse(0),
+                Duration.ofSeconds(cacheConfig.get("ttl-seconds").asInt().orElse(60)));
+    }
+
+    private DecisionCache createDecisionCache(Config cacheConfig, UserDependencyTracker dependencyTracker) {
+        if (!cacheConfig.get("enabled").asBoolean().orElse(false)) {
+            return null;
+        }
+        return new DecisionCache(dependencyTracker,
+                cacheConfig.get("max-size").asInt().orElse(100000),
+                Duration.ofSeconds(cacheConfig.get("ttl-seconds").asInt().orElse(60)));
+    }
+
+    /**
+     * @param classConfig holds the pool, executor-threads and executor-queue-size of the bulkhead.
+     */
+    private Bulkhead createBulkhead(String name, Config dbConfig, Config classConfig) {
+        Bulkhead bulkhead = Bulkhead.create(name, dbConfig.get("connection"), dbConfig.get("statements"), classConfig.get("pool"),
+                classConfig.get("executor-threads").asInt().orElse(10), classConfig.get("executor-queue-size").asInt().orElse(100));
+        startAdaptivePoolSizer(classConfig.get("pool.adaptive"), bulkhead.getBackgroundService(), bulkhead.getConnectionPool());
+        return bulkhead;
+    }
+
+    private void startAdaptivePoolSizer(Config adaptiveConfig, ScheduledExecutorService scheduler, InstrumentedConnectionPool connectionPool) {
+        if (!adaptiveConfig.get("enabled").asBoolean().orElse(false)) {
+            return;
+        }
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer(connectionPool,
+                adaptiveConfig.get("min-size").asInt().orElse(5),
+                adaptiveConfig.get("max-size").asInt().orElse(30),
+                adaptiveConfig.get("step").asInt().orElse(2),
+                Duration.ofMillis(adaptiveConfig.get("wait-threshold-millis").asInt().orElse(20)));
+        sizer.start(scheduler, Duration.ofSeconds(adaptiveConfig.get("interval-seconds").asInt().orElse(5)));
+    }
+
     private void migrateDatabaseSchema(Config flywayConfig) {
         Flyway flyway = Flyway.configure()
                 .dataSource(
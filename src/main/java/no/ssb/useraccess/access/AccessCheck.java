@@ -0,0 +1,48 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+
+import java.util.Objects;
+
+/**
+ * One (user, privilege, path, valuation, state) tuple of an access check.
+ */
+final class AccessCheck {
+
+    final String userId;
+    final Privilege privilege;
+    final String path;
+    final Valuation valuation;
+    final DatasetState state;
+
+    AccessCheck(String userId, Privilege privilege, String path, Valuation valuation, DatasetState state) {
+        this.userId = userId;
+        this.privilege = privilege;
+        this.path = path;
+        this.valuation = valuation;
+        this.state = state;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AccessCheck that = (AccessCheck) o;
+        return userId.equals(that.userId)
+                && privilege == that.privilege
+                && path.equals(that.path)
+                && valuation == that.valuation
+                && state == that.state;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, privilege, path, valuation, state);
+    }
+}
@@ -1,7 +1,14 @@
 package no.ssb.useraccess.access;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.helidon.common.http.Http;
+import io.helidon.common.reactive.Single;
 import io.helidon.metrics.RegistryFactory;
+import io.helidon.webserver.Handler;
 import io.helidon.webserver.Routing;
 import io.helidon.webserver.ServerRequest;
 import io.helidon.webserver.ServerResponse;
@@ -11,14 +18,22 @@ import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
 import no.ssb.dapla.auth.dataset.protobuf.Privilege;
 import no.ssb.dapla.auth.dataset.protobuf.Valuation;
 import no.ssb.helidon.application.Tracing;
+import no.ssb.useraccess.db.BulkheadFullException;
+import no.ssb.useraccess.util.ConcurrencyLimiter;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import static no.ssb.helidon.application.Tracing.logError;
 import static no.ssb.helidon.application.Tracing.traceOutputMessage;
@@ -27,66 +42,151 @@ public class AccessHttpService implements Service {
 
     private static final Logger LOG = LoggerFactory.getLogger(AccessHttpService.class);
 
+    static final int MAX_BATCH_SIZE = 10000;
+    static final int MAX_FILTER_PATHS = 100000;
+
+    static final Duration DECISION_TIMEOUT = Duration.ofSeconds(1);
+    static final Duration BATCH_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration LISTING_TIMEOUT = Duration.ofSeconds(5);
+
     private final ScheduledExecutorService timeoutService;
+    private final ScheduledExecutorService listingTimeoutService;
     private final AccessService accessService;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final String retryAfterSeconds;
 
     private final Timer accessUserTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessUserTimer");
     private final Timer accessListMatchingTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessListMatchingTimer");
     private final Counter accessGrantedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessGrantedCount");
     private final Counter accessDeniedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessDeniedCount");
+    private final Timer accessBatchTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessBatchTimer");
+    private final Counter accessBatchGrantedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessBatchGrantedCount");
+    private final Counter accessBatchDeniedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessBatchDeniedCount");
+    private final Timer accessPrivilegesTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessPrivilegesTimer");
+    private final Timer accessScopeTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessScopeTimer");
+    private final Timer accessPrefixesTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessPrefixesTimer");
+    private final Timer accessFilterPathsTimer = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).timer("accessFilterPathsTimer");
+
+    private final ObjectMapper mapper = new ObjectMapper();
 
     public AccessHttpService(ScheduledExecutorService timeoutService, AccessService accessService) {
+        this(timeoutService, timeoutService, accessService);
+    }
+
+    /**
+     * @param timeoutService        times out the access decisions.
+     * @param listingTimeoutService times out the listing of who is granted access to a path, so that slow listings
+     *                              cannot delay the timeouts of decisions.
+     */
+    public AccessHttpService(ScheduledExecutorService timeoutService, ScheduledExecutorService listingTimeoutService, AccessService accessService) {
+        this(timeoutService, listingTimeoutService, accessService, null, Duration.ZERO);
+    }
+
+    /**
+     * @param concurrencyLimiter limits the access decisions in flight, those beyond the limit are rejected with
+     *                           503 Service Unavailable. Null disables limiting.
+     * @param retryAfter         sent as Retry-After with rejections.
+     */
+    public AccessHttpService(ScheduledExecutorService timeoutService, ScheduledExecutorService listingTimeoutService, AccessService accessService,
+                             ConcurrencyLimiter concurrencyLimiter, Duration retryAfter) {
         this.timeoutService = timeoutService;
+        this.listingTimeoutService = listingTimeoutService;
         this.accessService = accessService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.retryAfterSeconds = String.valueOf(Math.max(1, retryAfter.toSeconds()));
     }
 
     @Override
     public void update(Routing.Rules rules) {
         rules.get("/", this::listMatchingUsersRolesAndGroupsByPath);
-        rules.get("/{userId}", this::httpHasAccess);
+        rules.post("/batch", limited(this::httpHasAccessBatch));
+        rules.get("/{userId}", limited(this::httpHasAccess));
+        rules.get("/{userId}/privileges", limited(this::httpGrantedPrivileges));
+        rules.get("/{userId}/scope", limited(this::httpAccessScope));
+        rules.get("/{userId}/prefixes", limited(this::httpAccessiblePrefixes));
+        rules.post("/{userId}/paths", limited(this::httpFilterAccessiblePaths));
     }
 
-    private void httpHasAccess(ServerRequest req, ServerResponse res) {
-        Span span = Tracing.spanFromHttp(req, "httpHasAccess");
-        try {
-            String userId = req.path().param("userId");
-            span.setTag("userId", userId);
-            Privilege privilege = Privilege.valueOf(req.queryParams().first("privilege").orElseThrow());
-            span.setTag("privilege", privilege.name());
-            String path = req.queryParams().first("path").orElseThrow();
-            if (!path.startsWith("/")) {
-                path = "/" + path;
+    /**
+     * Runs the handler when the concurrency limiter admits the request, and releases it with the latency and whether
+     * it failed when the response has been sent. Requests the handler throws on are invalid rather than failed, and
+     * leave the limit alone. Rejected requests get 503 with Retry-After.
+     */
+    private Handler limited(Handler handler) {
+        if (concurrencyLimiter == null) {
+            return handler;
+        }
+        return (req, res) -> {
+            if (!concurrencyLimiter.tryAcquire()) {
+                res.headers().put(Http.Header.RETRY_AFTER, retryAfterSeconds);
+                res.status(Http.Status.SERVICE_UNAVAILABLE_503).send();
+                return;
             }
-            span.setTag("path", path);
-            Valuation valuation = Valuation.valueOf(req.queryParams().first("valuation").orElseThrow());
-            span.setTag("valuation", valuation.name());
-            DatasetState state = DatasetState.valueOf(req.queryParams().first("state").orElseThrow());
-            span.setTag("state", state.name());
-            Timer.Context timerContext = accessUserTimer.time();
-            accessService.hasAccess(span, userId, privilege, path, valuation, state)
-                    .timeout(1, TimeUnit.SECONDS, timeoutService)
-                    .subscribe(access -> {
+            long startNanos = System.nanoTime();
+            AtomicBoolean invalid = new AtomicBoolean();
+            res.whenSent().whenComplete((sent, t) -> {
+                if (invalid.get()) {
+                    concurrencyLimiter.release();
+                } else {
+                    concurrencyLimiter.release(System.nanoTime() - startNanos, t != null || sent.status().code() >= 500);
+                }
+            });
+            try {
+                handler.accept(req, res);
+            } catch (RuntimeException e) {
+                // e.g. a missing or unknown query parameter, which says nothing about the load
+                invalid.set(true);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Handles a request with a span and a timer: evaluate parses the request, tagging the span, and returns the
+     * evaluation, which must complete within the timeout, and respond sends its result. Failed evaluations get 500,
+     * those rejected by a full {@link no.ssb.useraccess.db.Bulkhead} get 503 with Retry-After, and requests whose body
+     * is rejected by evaluate with {@link InvalidBodyException} get 400. Exceptions thrown by
+     * evaluate itself, e.g. for a missing query parameter, are rethrown.
+     */
+    private <T> void handle(ServerRequest req, ServerResponse res, String operation, Timer timer, Duration timeout,
+                            ScheduledExecutorService timeoutService, Function<Span, Single<T>> evaluate, BiConsumer<Span, T> respond) {
+        Span span = Tracing.spanFromHttp(req, operation);
+        try {
+            Timer.Context timerContext = timer.time();
+            evaluate.apply(span)
+                    .timeout(timeout.toMillis(), TimeUnit.MILLISECONDS, timeoutService)
+                    .subscribe(result -> {
                         Tracing.restoreTracingContext(req.tracer(), span);
-                        if (access) {
-                            accessGrantedCount.inc();
-                            res.status(Http.Status.OK_200).send();
-                        } else {
-                            accessDeniedCount.inc();
-                            res.status(Http.Status.FORBIDDEN_403).send();
-                        }
+                        respond.accept(span, result);
                         span.finish();
                         timerContext.stop();
                     }, t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
+                            if (t instanceof InvalidBodyException) {
+                                span.log(t.getMessage());
+                                res.status(Http.Status.BAD_REQUEST_400).send(t.getCause().getMessage());
+                                return;
+                            }
+                            if (BulkheadFullException.causedBy(t)) {
+                                sendUnavailable(span, res);
+                                return;
+                            }
                             res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             logError(span, t);
-                            LOG.error("hasAccess() user='{}'", userId, t);
+                            LOG.error("{}() failed", operation, t);
                         } finally {
                             timerContext.stop();
                             span.finish();
                         }
                     });
+        } catch (BulkheadFullException e) {
+            // the connection is requested as the evaluation is set up
+            try {
+                sendUnavailable(span, res);
+            } finally {
+                span.finish();
+            }
         } catch (RuntimeException | Error e) {
             try {
                 logError(span, e);
@@ -98,51 +198,251 @@ public class AccessHttpService implements Service {
         }
     }
 
-    private void listMatchingUsersRolesAndGroupsByPath(ServerRequest req, ServerResponse res) {
-        Span span = Tracing.spanFromHttp(req, "catalogAccess");
-        try {
-            String path = req.queryParams().first("path").orElseThrow();
-            String valuation = req.queryParams().first("valuation").orElseThrow();
-            String state = req.queryParams().first("state").orElseThrow();
+    private void sendUnavailable(Span span, ServerResponse res) {
+        span.log("bulkhead full");
+        res.headers().put(Http.Header.RETRY_AFTER, retryAfterSeconds);
+        res.status(Http.Status.SERVICE_UNAVAILABLE_503).send();
+    }
+
+    /**
+     * A request body that could not be parsed, answered with 400.
+     */
+    private static final class InvalidBodyException extends RuntimeException {
+        InvalidBodyException(String message, Exception cause) {
+            super(message, cause);
+        }
+    }
+
+    private static String requiredPath(ServerRequest req) {
+        String path = req.queryParams().first("path").orElseThrow();
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private void httpHasAccess(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpHasAccess", accessUserTimer, DECISION_TIMEOUT, timeoutService, span -> {
+            String userId = req.path().param("userId");
+            span.setTag("userId", userId);
+            Privilege privilege = Privilege.valueOf(req.queryParams().first("privilege").orElseThrow());
+            span.setTag("privilege", privilege.name());
+            String path = requiredPath(req);
+            span.setTag("path", path);
+            Valuation valuation = Valuation.valueOf(req.queryParams().first("valuation").orElseThrow());
+            span.setTag("valuation", valuation.name());
+            DatasetState state = DatasetState.valueOf(req.queryParams().first("state").orElseThrow());
+            span.setTag("state", state.name());
+            return accessService.hasAccess(span, userId, privilege, path, valuation, state);
+        }, (span, access) -> {
+            if (access) {
+                accessGrantedCount.inc();
+                res.status(Http.Status.OK_200).send();
+            } else {
+                accessDeniedCount.inc();
+                res.status(Http.Status.FORBIDDEN_403).send();
+            }
+        });
+    }
+
+    private void httpGrantedPrivileges(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpGrantedPrivileges", accessPrivilegesTimer, DECISION_TIMEOUT, timeoutService, span -> {
+            String userId = req.path().param("userId");
+            span.setTag("userId", userId);
+            String path = requiredPath(req);
+            span.setTag("path", path);
+            Valuation valuation = Valuation.valueOf(req.queryParams().first("valuation").orElseThrow());
+            span.setTag("valuation", valuation.name());
+            DatasetState state = DatasetState.valueOf(req.queryParams().first("state").orElseThrow());
+            span.setTag("state", state.name());
+            return accessService.grantedPrivileges(span, userId, path, valuation, state);
+        }, (span, privileges) -> {
+            ObjectNode result = mapper.createObjectNode();
+            ArrayNode privilegeArray = result.putArray("privileges");
+            privileges.forEach(privilege -> privilegeArray.add(privilege.name()));
+            res.send(result.toString());
+        });
+    }
+
+    private void httpAccessScope(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpAccessScope", accessScopeTimer, DECISION_TIMEOUT, timeoutService, span -> {
+            String userId = req.path().param("userId");
+            span.setTag("userId", userId);
+            Privilege privilege = Privilege.valueOf(req.queryParams().first("privilege").orElseThrow());
+            span.setTag("privilege", privilege.name());
+            String path = requiredPath(req);
+            span.setTag("path", path);
+            return accessService.accessScope(span, userId, privilege, path);
+        }, (span, scope) -> {
+            ObjectNode result = mapper.createObjectNode();
+            if (scope.getMaxValuation() != null) {
+                result.put("maxValuation", scope.getMaxValuation().name());
+            }
+            ArrayNode stateArray = result.putArray("states");
+            scope.getStates().forEach(state -> stateArray.add(state.name()));
+            res.send(result.toString());
+        });
+    }
+
+    private void httpAccessiblePrefixes(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpAccessiblePrefixes", accessPrefixesTimer, DECISION_TIMEOUT, timeoutService, span -> {
+            String userId = req.path().param("userId");
+            span.setTag("userId", userId);
+            Privilege privilege = Privilege.valueOf(req.queryParams().first("privilege").orElseThrow());
+            span.setTag("privilege", privilege.name());
+            Valuation valuation = Valuation.valueOf(req.queryParams().first("valuation").orElseThrow());
+            span.setTag("valuation", valuation.name());
+            DatasetState state = DatasetState.valueOf(req.queryParams().first("state").orElseThrow());
+            span.setTag("state", state.name());
+            return accessService.accessiblePrefixes(span, userId, privilege, valuation, state);
+        }, (span, prefixes) -> {
+            ObjectNode result = mapper.createObjectNode();
+            ArrayNode prefixArray = result.putArray("prefixes");
+            for (PathPrefix prefix : prefixes) {
+                ObjectNode prefixNode = prefixArray.addObject();
+                prefixNode.put("prefix", prefix.getPrefix());
+                ArrayNode excludeArray = prefixNode.putArray("excludes");
+                prefix.getExcludes().forEach(excludeArray::add);
+            }
+            res.send(result.toString());
+        });
+    }
+
+    private void httpHasAccessBatch(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpHasAccessBatch", accessBatchTimer, BATCH_TIMEOUT, timeoutService, span -> req.content().as(String.class).flatMapSingle(body -> {
+            List<AccessCheck> checks;
+            try {
+                checks = parseAccessChecks(body);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                return Single.error(new InvalidBodyException("invalid batch request", e));
+            }
+            span.setTag("checks", checks.size());
+            return accessService.hasAccess(span, checks).map(decisions -> {
+                ObjectNode result = mapper.createObjectNode();
+                ArrayNode decisionArray = result.putArray("decisions");
+                for (int i = 0; i < checks.size(); i++) {
+                    AccessCheck check = checks.get(i);
+                    boolean granted = decisions.get(i);
+                    if (granted) {
+                        accessBatchGrantedCount.inc();
+                    } else {
+                        accessBatchDeniedCount.inc();
+                    }
+                    decisionArray.addObject()
+                            .put("userId", check.userId)
+                            .put("privilege", check.privilege.name())
+                            .put("path", check.path)
+                            .put("valuation", check.valuation.name())
+                            .put("state", check.state.name())
+                            .put("granted", granted);
+                }
+                return result;
+            });
+        }), (span, result) -> res.send(result.toString()));
+    }
+
+    private void httpFilterAccessiblePaths(ServerRequest req, ServerResponse res) {
+        handle(req, res, "httpFilterAccessiblePaths", accessFilterPathsTimer, BATCH_TIMEOUT, timeoutService, span -> {
+            String userId = req.path().param("userId");
+            span.setTag("userId", userId);
+            Privilege privilege = Privilege.valueOf(req.queryParams().first("privilege").orElseThrow());
+            span.setTag("privilege", privilege.name());
+            Valuation valuation = Valuation.valueOf(req.queryParams().first("valuation").orElseThrow());
+            span.setTag("valuation", valuation.name());
+            DatasetState state = DatasetState.valueOf(req.queryParams().first("state").orElseThrow());
+            span.setTag("state", state.name());
+            return req.content().as(String.class).flatMapSingle(body -> {
+                List<String> paths;
+                try {
+                    paths = parsePaths(body);
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    return Single.error(new InvalidBodyException("invalid path list", e));
+                }
+                span.setTag("paths", paths.size());
+                return accessService.filterAccessiblePaths(span, userId, privilege, valuation, state, paths);
+            });
+        }, (span, accessiblePaths) -> {
+            ObjectNode result = mapper.createObjectNode();
+            ArrayNode pathArray = result.putArray("paths");
+            accessiblePaths.forEach(pathArray::add);
+            res.send(result.toString());
+        });
+    }
+
+    /**
+     * Parses a path list of the form <code>{"paths": ["/ns/test/a", "/ns/test/b"]}</code>
+     */
+    List<String> parsePaths(String body) throws JsonProcessingException {
+        JsonNode pathsNode = mapper.readTree(body).path("paths");
+        if (!pathsNode.isArray()) {
+            throw new IllegalArgumentException("paths must be an array");
+        }
+        if (pathsNode.size() > MAX_FILTER_PATHS) {
+            throw new IllegalArgumentException("at most " + MAX_FILTER_PATHS + " paths allowed per request");
+        }
+        List<String> paths = new ArrayList<>(pathsNode.size());
+        for (JsonNode pathNode : pathsNode) {
+            if (!pathNode.isTextual()) {
+                throw new IllegalArgumentException("paths must be strings");
+            }
+            String path = pathNode.textValue();
+            paths.add(path.startsWith("/") ? path : "/" + path);
+        }
+        return paths;
+    }
+
+    /**
+     * Parses a batch request of the form
+     * <code>{"checks": [{"userId": "...", "privilege": "READ", "path": "/ns/test", "valuation": "OPEN", "state": "RAW"}]}</code>
+     */
+    List<AccessCheck> parseAccessChecks(String body) throws JsonProcessingException {
+        JsonNode checksNode = mapper.readTree(body).path("checks");
+        if (!checksNode.isArray()) {
+            throw new IllegalArgumentException("checks must be an array");
+        }
+        if (checksNode.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("at most " + MAX_BATCH_SIZE + " checks allowed per batch");
+        }
+        List<AccessCheck> checks = new ArrayList<>(checksNode.size());
+        for (JsonNode checkNode : checksNode) {
+            String path = requiredText(checkNode, "path");
             if (!path.startsWith("/")) {
                 path = "/" + path;
             }
+            checks.add(new AccessCheck(
+                    requiredText(checkNode, "userId"),
+                    Privilege.valueOf(requiredText(checkNode, "privilege")),
+                    path,
+                    Valuation.valueOf(requiredText(checkNode, "valuation")),
+                    DatasetState.valueOf(requiredText(checkNode, "state"))
+            ));
+        }
+        return checks;
+    }
+
+    private static String requiredText(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || !value.isTextual()) {
+            throw new IllegalArgumentException("missing " + field);
+        }
+        return value.textValue();
+    }
+
+    private void listMatchingUsersRolesAndGroupsByPath(ServerRequest req, ServerResponse res) {
+        handle(req, res, "catalogAccess", accessListMatchingTimer, LISTING_TIMEOUT, listingTimeoutService, span -> {
+            String path = requiredPath(req);
+            String valuation = req.queryParams().first("valuation").orElseThrow();
+            String state = req.queryParams().first("state").orElseThrow();
             span.setTag("path", path);
             span.setTag("valuation", valuation);
             span.setTag("state", state);
-            Timer.Context timerContext = accessListMatchingTimer.time();
-            accessService.listMatchingUsersRolesAndGroupsByPath(span, path, valuation, state)
-                    .timeout(5, TimeUnit.SECONDS, timeoutService)
-                    .subscribe(catalogAccessList -> {
-                        Tracing.restoreTracingContext(req.tracer(), span);
-                        if (catalogAccessList == null) {
-                            res.status(Http.Status.NOT_FOUND_404).send();
-                        } else {
-                            String json = catalogAccessList.toString();
-                            res.send(json);
-                            traceOutputMessage(span, json);
-                        }
-                        span.finish();
-                        timerContext.stop();
-                    }, t -> {
-                        try {
-                            Tracing.restoreTracingContext(req.tracer(), span);
-                            logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
-                        } finally {
-                            timerContext.stop();
-                            span.finish();
-                        }
-                    });
-        } catch (RuntimeException | Error e) {
-            try {
-                logError(span, e);
-                LOG.error("unexpected error", e);
-                throw e;
-            } finally {
-                span.finish();
+            return accessService.listMatchingUsersRolesAndGroupsByPath(span, path, valuation, state);
+        }, (span, catalogAccessList) -> {
+            if (catalogAccessList == null) {
+                res.status(Http.Status.NOT_FOUND_404).send();
+            } else {
+                String json = catalogAccessList.toString();
+                res.send(json);
+                traceOutputMessage(span, json);
             }
-        }
+        });
     }
 
 }
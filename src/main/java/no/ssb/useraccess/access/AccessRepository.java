@@ -0,0 +1,176 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
+import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbRow;
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.util.ProtobufUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads everything an access check needs about a user in one database round-trip.
+ */
+public class AccessRepository {
+
+    /**
+     * Finds the groups and roles of the user through the user_group_membership and principal_role tables. Returns one
+     * row per document, tagged 0 for the user, 1 for groups and 2 for roles, with groups and roles sorted by id.
+     */
+    static final String USER_WITH_GROUPS_AND_ROLES = "WITH u AS ("
+            + " SELECT userId, proto FROM user_permission WHERE userId = ?"
+            + "), g AS ("
+            + " SELECT ug.groupId, ug.proto FROM UserGroup ug"
+            + " JOIN user_group_membership m ON m.groupId = ug.groupId WHERE m.userId = ?"
+            + ")"
+            + " SELECT 0 AS kind, userId AS id, proto FROM u"
+            + " UNION ALL SELECT 1, groupId, proto FROM g"
+            + " UNION ALL SELECT 2, roleId, proto FROM role"
+            + " WHERE roleId IN (SELECT roleId FROM principal_role WHERE principal_type = 'user' AND principal_id = ?"
+            + " UNION SELECT pr.roleId FROM principal_role pr JOIN g ON pr.principal_type = 'group' AND pr.principal_id = g.groupId)"
+            + " ORDER BY kind, id";
+
+    /**
+     * As {@link #USER_WITH_GROUPS_AND_ROLES}, but finds the roles with one indexed lookup in effective_permission.
+     */
+    static final String USER_WITH_GROUPS_AND_EFFECTIVE_ROLES = "WITH u AS ("
+            + " SELECT userId, proto FROM user_permission WHERE userId = ?"
+            + ")"
+            + " SELECT 0 AS kind, userId AS id, proto FROM u"
+            + " UNION ALL SELECT 1, ug.groupId, ug.proto FROM UserGroup ug"
+            + " JOIN user_group_membership m ON m.groupId = ug.groupId WHERE m.userId = ?"
+            + " UNION ALL SELECT 2, roleId, proto FROM role"
+            + " WHERE roleId IN (SELECT roleId FROM effective_permission WHERE userId = ?)"
+            + " ORDER BY kind, id";
+
+    private final DbClient client;
+    private final boolean effectivePermissions;
+
+    private final Counter readCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessUserWithGroupsAndRolesReadCount");
+    private final Counter effectivePermissionReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessEffectivePermissionReadCount");
+
+    public AccessRepository(DbClient client) {
+        this(client, false);
+    }
+
+    /**
+     * @param effectivePermissions whether the effective_permission table is maintained and may be read.
+     */
+    public AccessRepository(DbClient client, boolean effectivePermissions) {
+        this.client = client;
+        this.effectivePermissions = effectivePermissions;
+    }
+
+    /**
+     * @return the user, its existing groups and every existing role referenced by the user or its groups, or empty
+     * if the user does not exist.
+     */
+    public Single<UserWithGroupsAndRoles> getUserWithGroupsAndRoles(String userId) {
+        Multi<DbRow> query = effectivePermissions
+                ? client.execute(exec -> exec.query(USER_WITH_GROUPS_AND_EFFECTIVE_ROLES, userId, userId, userId))
+                : client.execute(exec -> exec.query(USER_WITH_GROUPS_AND_ROLES, userId, userId, userId));
+        return query
+                .collectList()
+                .flatMapSingle(dbRows -> {
+                    readCount.inc();
+                    User user = null;
+                    List<Group> groups = new ArrayList<>();
+                    List<Role> roles = new ArrayList<>();
+                    for (DbRow dbRow : dbRows) {
+                        int kind = dbRow.column(1).as(Integer.class);
+                        byte[] proto = dbRow.column(3).as(byte[].class);
+                        switch (kind) {
+                            case 0:
+                                user = ProtobufUtil.parse(proto, User.parser());
+                                break;
+                            case 1:
+                                groups.add(ProtobufUtil.parse(proto, Group.parser()));
+                                break;
+                            default:
+                                roles.add(ProtobufUtil.parse(proto, Role.parser()));
+                        }
+                    }
+                    return user == null ? Single.empty() : Single.just(new UserWithGroupsAndRoles(user, groups, roles));
+                });
+    }
+
+    /**
+     * Reads the effective_permission table when it is maintained, and otherwise the effective_permission_source view
+     * over the indexed membership and role assignment tables.
+     *
+     * @return who is granted each of the given roles, directly or through a group.
+     */
+    public Multi<EffectivePermission> getEffectivePermissionsByRoles(List<String> roleIds) {
+        if (roleIds == null || roleIds.isEmpty()) {
+            return Multi.empty();
+        }
+        Object ids = roleIds.toArray(new String[0]);
+        return client.execute(exec -> exec.query("SELECT userId, roleId, via_group FROM " + (effectivePermissions ? "effective_permission" : "effective_permission_source")
+                + " WHERE roleId = ANY(?)", ids)
+                .map(dbRow -> {
+                    effectivePermissionReadCount.inc();
+                    return new EffectivePermission(dbRow.column(1).as(String.class), dbRow.column(2).as(String.class), dbRow.column(3).as(String.class));
+                })
+        );
+    }
+
+    public static class EffectivePermission {
+
+        private final String userId;
+        private final String roleId;
+        private final String viaGroup;
+
+        EffectivePermission(String userId, String roleId, String viaGroup) {
+            this.userId = userId;
+            this.roleId = roleId;
+            this.viaGroup = viaGroup;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getRoleId() {
+            return roleId;
+        }
+
+        /**
+         * @return the group through which the role is granted, or "" if granted directly.
+         */
+        public String getViaGroup() {
+            return viaGroup;
+        }
+    }
+
+    public static class UserWithGroupsAndRoles {
+
+        private final User user;
+        private final List<Group> groups;
+        private final List<Role> roles;
+
+        UserWithGroupsAndRoles(User user, List<Group> groups, List<Role> roles) {
+            this.user = user;
+            this.groups = groups;
+            this.roles = roles;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        public List<Role> getRoles() {
+            return roles;
+        }
+    }
+}
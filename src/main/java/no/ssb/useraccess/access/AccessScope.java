@@ -0,0 +1,31 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+
+import java.util.Set;
+
+/**
+ * The highest valuation and the dataset states a user is granted for a path and privilege. The valuation and the
+ * states are combined over all matching roles, so the highest valuation is not necessarily granted in every state.
+ */
+final class AccessScope {
+
+    private final InternalValuation maxValuation;
+    private final Set<DatasetState> states;
+
+    AccessScope(InternalValuation maxValuation, Set<DatasetState> states) {
+        this.maxValuation = maxValuation;
+        this.states = states;
+    }
+
+    /**
+     * @return the highest valuation granted, or null if no role matches.
+     */
+    InternalValuation getMaxValuation() {
+        return maxValuation;
+    }
+
+    Set<DatasetState> getStates() {
+        return states;
+    }
+}
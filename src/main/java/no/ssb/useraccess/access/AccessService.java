@@ -4,13 +4,12 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.protobuf.LazyStringArrayList;
+import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
+import io.helidon.metrics.RegistryFactory;
 import io.opentracing.Span;
 import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
-import no.ssb.dapla.auth.dataset.protobuf.DatasetStateSet;
 import no.ssb.dapla.auth.dataset.protobuf.Group;
-import no.ssb.dapla.auth.dataset.protobuf.PathSet;
 import no.ssb.dapla.auth.dataset.protobuf.Privilege;
 import no.ssb.dapla.auth.dataset.protobuf.PrivilegeSet;
 import no.ssb.dapla.auth.dataset.protobuf.Role;
@@ -20,169 +19,388 @@ import no.ssb.useraccess.autocreate.AutoCreateService;
 import no.ssb.useraccess.group.GroupRepository;
 import no.ssb.useraccess.role.RoleRepository;
 import no.ssb.useraccess.user.UserRepository;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
-
-import static java.util.Optional.ofNullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AccessService {
 
     private static final Logger LOG = LoggerFactory.getLogger(AccessService.class);
 
+    static final int DEFAULT_BATCH_RESOLVE_CONCURRENCY = 16;
+
+    final AuthorizationSource authorizationSource;
     final UserRepository userRepository;
     final GroupRepository groupRepository;
     final RoleRepository roleRepository;
     final ObjectMapper objectMapper = new ObjectMapper();
     final AutoCreateService autoCreateService;
+    final DecisionCache decisionCache;
+    final UnknownUserCache unknownUserCache;
+    final AccessRepository accessRepository;
+    final int batchResolveConcurrency;
+
+    /**
+     * Decisions being evaluated, shared by concurrent identical checks.
+     */
+    private final Map<AccessCheck, CompletableFuture<Boolean>> inFlightDecisions = new ConcurrentHashMap<>();
+    private final Counter coalescedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessCoalescedCount");
 
     public AccessService(UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository, AutoCreateService autoCreateService) {
+        this(new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository), userRepository, groupRepository, roleRepository, autoCreateService);
+    }
+
+    public AccessService(AuthorizationSource authorizationSource, UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository, AutoCreateService autoCreateService) {
+        this(authorizationSource, null, null, userRepository, groupRepository, roleRepository, autoCreateService);
+    }
+
+    /**
+     * @param decisionCache    cache of single access decisions, or null to evaluate every check.
+     * @param unknownUserCache cache of user ids that neither exist nor can be auto-created, or null to look them up
+     *                         on every check.
+     */
+    public AccessService(AuthorizationSource authorizationSource, DecisionCache decisionCache, UnknownUserCache unknownUserCache,
+                         UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository, AutoCreateService autoCreateService) {
+        this(authorizationSource, decisionCache, unknownUserCache, null, userRepository, groupRepository, roleRepository, autoCreateService);
+    }
+
+    /**
+     * @param accessRepository finds the users of the roles matching a path, or null to search a snapshot of all
+     *                         users, groups and roles.
+     */
+    public AccessService(AuthorizationSource authorizationSource, DecisionCache decisionCache, UnknownUserCache unknownUserCache,
+                         AccessRepository accessRepository, UserRepository userRepository, GroupRepository groupRepository,
+                         RoleRepository roleRepository, AutoCreateService autoCreateService) {
+        this(authorizationSource, decisionCache, unknownUserCache, accessRepository, userRepository, groupRepository, roleRepository,
+                autoCreateService, DEFAULT_BATCH_RESOLVE_CONCURRENCY);
+    }
+
+    /**
+     * @param batchResolveConcurrency the number of users of a batch that are resolved at the same time, so that one
+     *                                large batch cannot take every database connection.
+     */
+    public AccessService(AuthorizationSource authorizationSource, DecisionCache decisionCache, UnknownUserCache unknownUserCache,
+                         AccessRepository accessRepository, UserRepository userRepository, GroupRepository groupRepository,
+                         RoleRepository roleRepository, AutoCreateService autoCreateService, int batchResolveConcurrency) {
+        if (batchResolveConcurrency < 1) {
+            throw new IllegalArgumentException("Expected batchResolveConcurrency >= 1, got " + batchResolveConcurrency);
+        }
+        this.authorizationSource = authorizationSource;
+        this.decisionCache = decisionCache;
+        this.unknownUserCache = unknownUserCache;
+        this.accessRepository = accessRepository;
         this.userRepository = userRepository;
         this.groupRepository = groupRepository;
         this.roleRepository = roleRepository;
         this.autoCreateService = autoCreateService;
+        this.batchResolveConcurrency = batchResolveConcurrency;
     }
 
     Single<Boolean> hasAccess(Span span, String userId, Privilege privilege, String path, Valuation valuation, DatasetState state) {
-        span.log("calling userRepository.getUser()");
-        return userRepository.getUser(userId).switchIfEmpty(Single.defer(() -> autoCreateService.createNewUser(userId, span))).flatMapSingle(user -> {
-            return groupRepository.getGroups(user.getGroupsList()).collectList().flatMapSingle(groups -> {
-                Set<String> roleIds = new LinkedHashSet<>(user.getRolesList());
-                for (Group group : groups) {
-                    roleIds.addAll(group.getRolesList());
-                }
-                return roleRepository.getRoles(new ArrayList<>(roleIds)).collectList().map(roles -> {
-                    for (Role role : roles) {
-                        span.log(Map.of("event", "checking role", "roleId", role.getRoleId()));
-                        if (!matchRole(role, privilege, path, valuation, state)) {
-                            continue;
-                        }
-                        span.log(Map.of("event", "access granted", "roleId", role.getRoleId()));
-                        return true;
-                    }
-                    span.log("access denied");
-                    return false;
-                });
+        AccessCheck check = new AccessCheck(userId, privilege, path, valuation, state);
+        if (decisionCache != null) {
+            Boolean cached = decisionCache.get(check);
+            if (cached != null) {
+                span.log(Map.of("event", "cached decision", "granted", cached));
+                return Single.just(cached);
+            }
+        }
+        CompletableFuture<Boolean> decision = new CompletableFuture<>();
+        CompletableFuture<Boolean> inFlightDecision = inFlightDecisions.putIfAbsent(check, decision);
+        if (inFlightDecision != null) {
+            coalescedCount.inc();
+            span.log("joined identical in-flight access check");
+            return Single.create(inFlightDecision).peek(granted -> span.log(granted ? "access granted" : "access denied"));
+        }
+        try {
+            evaluateAccess(span, check).subscribe(granted -> {
+                inFlightDecisions.remove(check, decision);
+                decision.complete(granted);
+            }, t -> {
+                inFlightDecisions.remove(check, decision);
+                decision.completeExceptionally(t);
             });
+        } catch (RuntimeException | Error e) {
+            inFlightDecisions.remove(check, decision);
+            decision.completeExceptionally(e);
+        }
+        return Single.create(decision);
+    }
+
+    private Single<Boolean> evaluateAccess(Span span, AccessCheck check) {
+        long version = decisionCache == null ? 0 : decisionCache.currentVersion();
+        return resolveUser(span, check.userId).map(resolvedUser -> {
+            boolean granted = hasAccess(span, resolvedUser, check.privilege, check.path, check.valuation, check.state);
+            if (decisionCache != null) {
+                decisionCache.put(check, resolvedUser, granted, version);
+            }
+            return granted;
         }).switchIfEmpty(Single.just(false));
     }
 
-    static boolean matchRole(Role role, Privilege privilege, String path, Valuation valuation, DatasetState state) {
-        if (privilege != null && !matchPrivileges(ofNullable(role.getPrivileges()), privilege::equals)) {
+    /**
+     * @param span logged to for every role checked, or null to not trace the roles, e.g. for each check of a batch.
+     */
+    static boolean hasAccess(Span span, ResolvedUser resolvedUser, Privilege privilege, String path, Valuation valuation, DatasetState state) {
+        boolean granted = !resolvedUser.forEachRole(path, role -> {
+            if (span != null) {
+                span.log(Map.of("event", "checking role", "roleId", role.getRoleId()));
+            }
+            if (!role.matchesExceptPath(privilege, valuation, state)) {
+                return true;
+            }
+            if (span != null) {
+                span.log(Map.of("event", "access granted", "roleId", role.getRoleId()));
+            }
             return false;
+        });
+        if (!granted && span != null) {
+            span.log("access denied");
         }
+        return granted;
+    }
 
-        if (!matchPaths(ofNullable(role.getPaths()), path::startsWith)) {
-            return false;
-        }
-        InternalValuation maxInternalValuation = InternalValuation.valueOf(role.getMaxValuation().name());
-        InternalValuation internalValuation = InternalValuation.valueOf(valuation.name());
-        if (!maxInternalValuation.grantsAccessTo(internalValuation)) {
-            return false;
-        }
-        if (!matchStates(ofNullable(role.getStates()), state::equals)) {
-            return false;
+    /**
+     * Evaluates a batch of access checks. Each distinct user is resolved once, at most batchResolveConcurrency at a
+     * time, and the decisions are returned in the order of the checks.
+     */
+    Single<List<Boolean>> hasAccess(Span span, List<AccessCheck> checks) {
+        Set<String> userIds = new LinkedHashSet<>();
+        for (AccessCheck check : checks) {
+            userIds.add(check.userId);
         }
-        return true; // all criteria matched
+        span.log(Map.of("event", "resolving users", "count", userIds.size()));
+        return Multi.create(userIds)
+                .flatMap(userId -> resolveUser(span, userId), batchResolveConcurrency, false, batchResolveConcurrency)
+                .collectList()
+                .map(resolvedUsers -> {
+                    Map<String, ResolvedUser> resolvedUserById = new HashMap<>();
+                    for (ResolvedUser resolvedUser : resolvedUsers) {
+                        resolvedUserById.put(resolvedUser.getUser().getUserId(), resolvedUser);
+                    }
+                    List<Boolean> decisions = new ArrayList<>(checks.size());
+                    for (AccessCheck check : checks) {
+                        ResolvedUser resolvedUser = resolvedUserById.get(check.userId);
+                        decisions.add(resolvedUser != null && hasAccess(null, resolvedUser, check.privilege, check.path, check.valuation, check.state));
+                    }
+                    span.log("batch evaluated");
+                    return decisions;
+                });
     }
 
-    static boolean matchPrivileges(Optional<PrivilegeSet> criterionNode, Function<Privilege, Boolean> matcher) {
-        List<Privilege> excludes = criterionNode.map(PrivilegeSet::getExcludesList).orElse(Collections.emptyList());
-        for (Privilege exclude : excludes) {
-            if (matcher.apply(exclude)) {
-                return false; // exclude matches
+    /**
+     * @return the privileges granted to the user for the path, valuation and state, evaluated in a single pass over
+     * the user's roles.
+     */
+    Single<Set<Privilege>> grantedPrivileges(Span span, String userId, String path, Valuation valuation, DatasetState state) {
+        return resolveUser(span, userId)
+                .map(resolvedUser -> grantedPrivileges(resolvedUser, path, valuation, state))
+                .switchIfEmpty(Single.just(Set.of()));
+    }
+
+    static Set<Privilege> grantedPrivileges(ResolvedUser resolvedUser, String path, Valuation valuation, DatasetState state) {
+        int[] granted = {0};
+        resolvedUser.forEachRole(path, role -> {
+            if (role.matchesExceptPath(null, valuation, state)) {
+                granted[0] |= role.grantedPrivileges();
             }
-        }
-        List<Privilege> includes = criterionNode.map(PrivilegeSet::getIncludesList).orElse(Collections.emptyList());
-        if (includes.isEmpty()) {
-            return true; // empty include set always matches
-        }
-        for (Privilege include : includes) {
-            if (matcher.apply(include)) {
-                return true; // include matches
+            return !CompiledRole.grantsAllPrivileges(granted[0]);
+        });
+        return CompiledRole.privilegesOf(granted[0]);
+    }
+
+    /**
+     * @return the highest valuation and the states granted to the user for the privilege and path, evaluated in a
+     * single pass over the user's roles.
+     */
+    Single<AccessScope> accessScope(Span span, String userId, Privilege privilege, String path) {
+        return resolveUser(span, userId)
+                .map(resolvedUser -> accessScope(resolvedUser, privilege, path))
+                .switchIfEmpty(Single.just(new AccessScope(null, Set.of())));
+    }
+
+    static AccessScope accessScope(ResolvedUser resolvedUser, Privilege privilege, String path) {
+        int[] scope = {InternalValuation.UNKNOWN_LEVEL, 0}; // max valuation level, states
+        resolvedUser.forEachRole(path, role -> {
+            if (role.matchesPrivilege(privilege)
+                    && role.getMaxValuationLevel() != InternalValuation.UNKNOWN_LEVEL
+                    && role.grantedStates() != 0) {
+                scope[0] = Math.max(scope[0], role.getMaxValuationLevel());
+                scope[1] |= role.grantedStates();
             }
-        }
-        return false; // non-empty include set, but no matches
+            return true;
+        });
+        return new AccessScope(InternalValuation.ofLevel(scope[0]), CompiledRole.statesOf(scope[1]));
+    }
+
+    /**
+     * @return the path prefixes the user has access to with the privilege, valuation and state, computed from the
+     * user's own roles.
+     */
+    Single<List<PathPrefix>> accessiblePrefixes(Span span, String userId, Privilege privilege, Valuation valuation, DatasetState state) {
+        return resolveUser(span, userId)
+                .map(resolvedUser -> accessiblePrefixes(resolvedUser, privilege, valuation, state))
+                .switchIfEmpty(Single.just(List.of()));
     }
 
-    static boolean matchPaths(Optional<PathSet> criterionNode, Function<String, Boolean> matcher) {
-        List<String> excludes = criterionNode.map(PathSet::getExcludesList).orElse(LazyStringArrayList.EMPTY);
-        for (String exclude : excludes) {
-            if (matcher.apply(exclude)) {
-                return false; // exclude matches
+    static List<PathPrefix> accessiblePrefixes(ResolvedUser resolvedUser, Privilege privilege, Valuation valuation, DatasetState state) {
+        List<PathPrefix> prefixes = new ArrayList<>();
+        for (CompiledRole role : resolvedUser.getRoles()) {
+            if (role.matchesExceptPath(privilege, valuation, state)) {
+                prefixes.addAll(PathPrefix.of(role));
             }
         }
-        List<String> includes = criterionNode.map(PathSet::getIncludesList).orElse(LazyStringArrayList.EMPTY);
-        if (includes.isEmpty()) {
-            return true; // empty include set always matches
+        return PathPrefix.union(prefixes);
+    }
+
+    /**
+     * @return the given paths that the user has access to, in the order given.
+     */
+    Single<List<String>> filterAccessiblePaths(Span span, String userId, Privilege privilege, Valuation valuation, DatasetState state, List<String> paths) {
+        return resolveUser(span, userId)
+                .map(resolvedUser -> filterAccessiblePaths(resolvedUser, privilege, valuation, state, paths))
+                .switchIfEmpty(Single.just(List.of()));
+    }
+
+    static List<String> filterAccessiblePaths(ResolvedUser resolvedUser, Privilege privilege, Valuation valuation, DatasetState state, List<String> paths) {
+        String[] sortedPaths = paths.stream().distinct().sorted().toArray(String[]::new);
+        BitSet accessible = new BitSet(sortedPaths.length);
+        for (CompiledRole role : resolvedUser.getRoles()) {
+            if (!role.matchesExceptPath(privilege, valuation, state)) {
+                continue;
+            }
+            role.markMatchingPaths(sortedPaths, accessible);
+            if (accessible.cardinality() == sortedPaths.length) {
+                break; // everything is accessible
+            }
         }
-        for (String include : includes) {
-            if (matcher.apply(include)) {
-                return true; // include matches
+        List<String> result = new ArrayList<>(accessible.cardinality());
+        for (String path : paths) {
+            if (accessible.get(Arrays.binarySearch(sortedPaths, path))) {
+                result.add(path);
             }
         }
-        return false; // non-empty include set, but no matches
+        return result;
     }
 
-    static boolean matchStates(Optional<DatasetStateSet> criterionNode, Function<DatasetState, Boolean> matcher) {
-        List<DatasetState> excludes = criterionNode.map(DatasetStateSet::getExcludesList).orElse(Collections.emptyList());
-        for (DatasetState exclude : excludes) {
-            if (matcher.apply(exclude)) {
-                return false; // exclude matches
-            }
-        }
-        List<DatasetState> includes = criterionNode.map(DatasetStateSet::getIncludesList).orElse(Collections.emptyList());
-        if (includes.isEmpty()) {
-            return true; // empty include set always matches
+    /**
+     * Resolves the user with its groups and roles, auto-creating the user if allowed. Completes empty if the user
+     * does not exist and could not be auto-created.
+     */
+    Single<ResolvedUser> resolveUser(Span span, String userId) {
+        if (unknownUserCache == null) {
+            return authorizationSource.resolveUser(span, userId)
+                    .switchIfEmpty(Single.defer(() -> autoCreateService.createNewUser(userId, span)
+                            .flatMapSingle(user -> authorizationSource.resolveUser(span, user))));
         }
-        for (DatasetState include : includes) {
-            if (matcher.apply(include)) {
-                return true; // include matches
-            }
+        if (unknownUserCache.isUnknown(userId)) {
+            span.log("user is known to not exist");
+            return Single.empty();
         }
-        return false; // non-empty include set, but no matches
+        long version = unknownUserCache.version();
+        return authorizationSource.resolveUser(span, userId)
+                .switchIfEmpty(Single.defer(() -> autoCreateService.createNewUser(userId, span)
+                        .flatMapSingle(user -> authorizationSource.resolveUser(span, user))
+                        .switchIfEmpty(Single.defer(() -> {
+                            unknownUserCache.markUnknown(userId, version);
+                            return Single.empty();
+                        }))));
     }
 
     Single<JsonNode> listMatchingUsersRolesAndGroupsByPath(Span span, String path, String valuation, String state) {
-        ArrayNode result = objectMapper.createArrayNode();
-        span.log("userRepository.getUserList()");
-        return userRepository.getUserList(null).collectList().flatMapSingle(users -> {
-            span.log("calling roleRepository.getRoleList()");
-            return roleRepository.getRoleList(null).collectList().flatMapSingle(roles -> {
-                span.log("calling groupRepository.getGroupList()");
-                return groupRepository.getAllGroups().collectList().flatMapSingle(groups -> {
-                    roles.stream()
-                            .filter(role -> matchRole(role, null, path, Valuation.valueOf(valuation.toUpperCase()), DatasetState.valueOf(state.toUpperCase())))
-                            .forEach(role -> {
-                                groups.stream()
-                                        .filter(group -> group.getRolesList().contains(role.getRoleId()))
-                                        .forEach(group -> users.stream()
-                                                .filter(user -> user.getGroupsList().contains(group.getGroupId()))
-                                                .forEach(user -> addMatchToResult(result, role, user, group.getGroupId())
-                                                ));
-                                users.stream()
-                                        .filter(user -> user.getRolesList().contains(role.getRoleId()))
-                                        .forEach(user -> addMatchToResult(result, role, user, ""));
-                            });
-                    span.log("return catalogAccess");
-                    return Single.just(result);
-                });
+        if (accessRepository != null) {
+            return listMatchingUsersRolesAndGroupsByRoles(span, path, valuation, state);
+        }
+        span.log("calling authorizationSource.snapshot()");
+        return authorizationSource.snapshot(span).map(snapshot -> {
+            ArrayNode result = objectMapper.createArrayNode();
+            Valuation requestedValuation = Valuation.valueOf(valuation.toUpperCase());
+            DatasetState requestedState = DatasetState.valueOf(state.toUpperCase());
+            List<Group> groups = snapshot.getSortedGroups();
+            List<User> users = snapshot.getSortedUsers();
+            for (CompiledRole role : snapshot.getRolePathIndex().candidates(path)) {
+                if (!role.matchesExceptPath(null, requestedValuation, requestedState)) {
+                    continue;
+                }
+                groups.stream()
+                        .filter(group -> group.getRolesList().contains(role.getRoleId()))
+                        .forEach(group -> users.stream()
+                                .filter(user -> user.getGroupsList().contains(group.getGroupId()))
+                                .forEach(user -> addMatchToResult(result, role.getRole(), user.getUserId(), group.getGroupId())
+                                ));
+                users.stream()
+                        .filter(user -> user.getRolesList().contains(role.getRoleId()))
+                        .forEach(user -> addMatchToResult(result, role.getRole(), user.getUserId(), ""));
+            }
+            span.log("return catalogAccess");
+            return result;
+        });
+    }
+
+    /**
+     * Same result as the snapshot search, but only reads the roles with an include matching the path, and who is
+     * granted those roles, instead of every user, group and role. Excludes and the other criteria are checked here.
+     */
+    private Single<JsonNode> listMatchingUsersRolesAndGroupsByRoles(Span span, String path, String valuation, String state) {
+        span.log("calling roleRepository.getRolesMatchingPath()");
+        return roleRepository.getRolesMatchingPath(path).collectList().flatMapSingle(roles -> {
+            Valuation requestedValuation = Valuation.valueOf(valuation.toUpperCase());
+            DatasetState requestedState = DatasetState.valueOf(state.toUpperCase());
+            List<CompiledRole> compiledRoles = new ArrayList<>();
+            for (Role role : roles) {
+                compiledRoles.add(CompiledRole.compile(role));
+            }
+            compiledRoles.sort(Comparator.comparing(CompiledRole::getRoleId));
+            List<CompiledRole> matchingRoles = new ArrayList<>();
+            List<String> matchingRoleIds = new ArrayList<>();
+            for (CompiledRole role : new RolePathIndex(compiledRoles).candidates(path)) {
+                if (role.matchesExceptPath(null, requestedValuation, requestedState)) {
+                    matchingRoles.add(role);
+                    matchingRoleIds.add(role.getRoleId());
+                }
+            }
+            span.log("calling accessRepository.getEffectivePermissionsByRoles()");
+            return accessRepository.getEffectivePermissionsByRoles(matchingRoleIds).collectList().map(permissions -> {
+                Map<String, List<AccessRepository.EffectivePermission>> permissionsByRoleId = new HashMap<>();
+                for (AccessRepository.EffectivePermission permission : permissions) {
+                    permissionsByRoleId.computeIfAbsent(permission.getRoleId(), roleId -> new ArrayList<>()).add(permission);
+                }
+                ArrayNode result = objectMapper.createArrayNode();
+                for (CompiledRole role : matchingRoles) {
+                    List<AccessRepository.EffectivePermission> granted = permissionsByRoleId.get(role.getRoleId());
+                    if (granted == null) {
+                        continue;
+                    }
+                    // through groups first, ordered by group, then directly, ordered by user
+                    granted.sort(Comparator.comparing((AccessRepository.EffectivePermission permission) -> permission.getViaGroup().isEmpty())
+                            .thenComparing(AccessRepository.EffectivePermission::getViaGroup)
+                            .thenComparing(AccessRepository.EffectivePermission::getUserId));
+                    for (AccessRepository.EffectivePermission permission : granted) {
+                        addMatchToResult(result, role.getRole(), permission.getUserId(), permission.getViaGroup());
+                    }
+                }
+                span.log("return catalogAccess");
+                return result;
             });
         });
     }
 
-    private static void addMatchToResult(ArrayNode result, Role role, User user, String groupId) {
+    private static void addMatchToResult(ArrayNode result, Role role, String userId, String groupId) {
         ObjectNode match = result.addObject();
-        match.put("user", user.getUserId())
+        match.put("user", userId)
                 .put("role", role.getRoleId())
                 .put("group", groupId);
         ArrayNode privileges = match.putArray("privileges");
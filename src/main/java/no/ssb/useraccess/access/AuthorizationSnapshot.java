@@ -0,0 +1,195 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable, versioned view of all users, groups and roles. Every modification returns a new snapshot with the
+ * version incremented, leaving the current one untouched for readers that still hold it. The snapshots share their
+ * entries through {@link OverlayMap}s, so a modification does not copy every user, group or role.
+ */
+public final class AuthorizationSnapshot {
+
+    private final long version;
+    private final OverlayMap<User> users;
+    private final OverlayMap<Group> groups;
+    private final OverlayMap<CompiledRole> roles;
+
+    // derived from the immutable maps above, so they are computed on first use and shared by all readers
+    private final Map<String, ResolvedUser> resolvedUsers = new ConcurrentHashMap<>();
+    private volatile List<User> sortedUsers;
+    private volatile List<Group> sortedGroups;
+    private volatile RolePathIndex rolePathIndex;
+
+    private AuthorizationSnapshot(long version, OverlayMap<User> users, OverlayMap<Group> groups, OverlayMap<CompiledRole> roles) {
+        this.version = version;
+        this.users = users;
+        this.groups = groups;
+        this.roles = roles;
+    }
+
+    static AuthorizationSnapshot empty() {
+        return new AuthorizationSnapshot(0, OverlayMap.empty(), OverlayMap.empty(), OverlayMap.empty());
+    }
+
+    AuthorizationSnapshot replaceAll(Collection<User> users, Collection<Group> groups, Collection<Role> roles) {
+        Map<String, User> userMap = new HashMap<>();
+        users.forEach(user -> userMap.put(user.getUserId(), user));
+        Map<String, Group> groupMap = new HashMap<>();
+        groups.forEach(group -> groupMap.put(group.getGroupId(), group));
+        Map<String, CompiledRole> roleMap = new HashMap<>();
+        roles.forEach(role -> roleMap.put(role.getRoleId(), CompiledRole.compile(role)));
+        return new AuthorizationSnapshot(version + 1, OverlayMap.of(userMap), OverlayMap.of(groupMap), OverlayMap.of(roleMap));
+    }
+
+    AuthorizationSnapshot withUser(User user) {
+        return new AuthorizationSnapshot(version + 1, users.with(user.getUserId(), user), groups, roles);
+    }
+
+    AuthorizationSnapshot withoutUser(String userId) {
+        return new AuthorizationSnapshot(version + 1, users.with(userId, null), groups, roles);
+    }
+
+    AuthorizationSnapshot withoutUsers() {
+        return new AuthorizationSnapshot(version + 1, OverlayMap.empty(), groups, roles);
+    }
+
+    AuthorizationSnapshot withGroup(Group group) {
+        return new AuthorizationSnapshot(version + 1, users, groups.with(group.getGroupId(), group), roles);
+    }
+
+    AuthorizationSnapshot withoutGroup(String groupId) {
+        return new AuthorizationSnapshot(version + 1, users, groups.with(groupId, null), roles);
+    }
+
+    AuthorizationSnapshot withoutGroups() {
+        return new AuthorizationSnapshot(version + 1, users, OverlayMap.empty(), roles);
+    }
+
+    AuthorizationSnapshot withRole(Role role) {
+        return new AuthorizationSnapshot(version + 1, users, groups, roles.with(role.getRoleId(), CompiledRole.compile(role)));
+    }
+
+    AuthorizationSnapshot withoutRole(String roleId) {
+        return new AuthorizationSnapshot(version + 1, users, groups, roles.with(roleId, null));
+    }
+
+    AuthorizationSnapshot withoutRoles() {
+        return new AuthorizationSnapshot(version + 1, users, groups, OverlayMap.empty());
+    }
+
+    /**
+     * Resolves groups and roles of the given user. Unknown group and role ids are ignored, like they are when
+     * reading from the database.
+     */
+    ResolvedUser resolve(User user) {
+        if (users.get(user.getUserId()) == user) {
+            return resolvedUsers.computeIfAbsent(user.getUserId(), userId -> {
+                ResolvedUser resolvedUser = doResolve(user);
+                resolvedUser.markCached();
+                return resolvedUser;
+            });
+        }
+        return doResolve(user);
+    }
+
+    private ResolvedUser doResolve(User user) {
+        List<Group> userGroups = new ArrayList<>(user.getGroupsCount());
+        Set<String> roleIds = new LinkedHashSet<>(user.getRolesList());
+        for (String groupId : user.getGroupsList()) {
+            Group group = groups.get(groupId);
+            if (group != null) {
+                userGroups.add(group);
+                roleIds.addAll(group.getRolesList());
+            }
+        }
+        List<CompiledRole> userRoles = new ArrayList<>(roleIds.size());
+        for (String roleId : roleIds) {
+            CompiledRole role = roles.get(roleId);
+            if (role != null) {
+                userRoles.add(role);
+            }
+        }
+        return new ResolvedUser(user, userGroups, userRoles);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    User getUser(String userId) {
+        return users.get(userId);
+    }
+
+    Collection<User> getUsers() {
+        return users.values();
+    }
+
+    Collection<Group> getGroups() {
+        return groups.values();
+    }
+
+    Collection<CompiledRole> getRoles() {
+        return roles.values();
+    }
+
+    int getUserCount() {
+        return users.size();
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    int getRoleCount() {
+        return roles.size();
+    }
+
+    /**
+     * @return all users ordered by userId.
+     */
+    List<User> getSortedUsers() {
+        List<User> result = sortedUsers;
+        if (result == null) {
+            result = users.values().stream().sorted(Comparator.comparing(User::getUserId)).collect(Collectors.toUnmodifiableList());
+            sortedUsers = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return all groups ordered by groupId.
+     */
+    List<Group> getSortedGroups() {
+        List<Group> result = sortedGroups;
+        if (result == null) {
+            result = groups.values().stream().sorted(Comparator.comparing(Group::getGroupId)).collect(Collectors.toUnmodifiableList());
+            sortedGroups = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return path index over all roles ordered by roleId.
+     */
+    RolePathIndex getRolePathIndex() {
+        RolePathIndex result = rolePathIndex;
+        if (result == null) {
+            result = new RolePathIndex(roles.values().stream().sorted(Comparator.comparing(CompiledRole::getRoleId)).collect(Collectors.toList()));
+            rolePathIndex = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+
+/**
+ * Resolves users, groups and roles for access evaluation. Selected with the {@code access.source} configuration.
+ */
+public interface AuthorizationSource {
+
+    /**
+     * @return the resolved user, or an empty single if no user with the given id exists.
+     */
+    Single<ResolvedUser> resolveUser(Span span, String userId);
+
+    /**
+     * @return the groups and roles of an already known user, e.g. one that was just auto-created.
+     */
+    Single<ResolvedUser> resolveUser(Span span, User user);
+
+    /**
+     * @return a snapshot of all users, groups and roles, used when matching a path against every user.
+     */
+    Single<AuthorizationSnapshot> snapshot(Span span);
+}
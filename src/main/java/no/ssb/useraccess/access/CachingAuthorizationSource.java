@@ -0,0 +1,146 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.helidon.metrics.RegistryFactory;
+import io.opentracing.Span;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches resolved users, with their roles already compiled, in front of another {@link AuthorizationSource}. The cache
+ * is bounded by weight rather than by number of users: each user weighs one plus its number of roles, so that a few
+ * users with thousands of roles cannot crowd out everyone else. The least recently used users are evicted first. A
+ * resolved user is discarded when it is older than the time-to-live, or when the {@link UserDependencyTracker}
+ * reports that the user, one of its groups or one of its roles has changed. Every cached user is tracked by the
+ * {@link UserDependencyTracker} until it is evicted or discarded.
+ */
+public class CachingAuthorizationSource implements AuthorizationSource {
+
+    private final AuthorizationSource delegate;
+    private final UserDependencyTracker dependencyTracker;
+    private final long maxWeight;
+    private final long ttlNanos;
+
+    private final Counter hitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessResolvedUserCacheHitCount");
+    private final Counter missCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessResolvedUserCacheMissCount");
+    private final Counter evictionCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessResolvedUserCacheEvictionCount");
+
+    private final LinkedHashMap<String, CachedUser> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    public CachingAuthorizationSource(AuthorizationSource delegate, UserDependencyTracker dependencyTracker, long maxWeight, Duration ttl) {
+        this.delegate = delegate;
+        this.dependencyTracker = dependencyTracker;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        MetricsUtil.gauge("accessResolvedUserCacheSize", this::size);
+        MetricsUtil.gauge("accessResolvedUserCacheWeight", this::weight);
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, String userId) {
+        ResolvedUser cached = get(userId);
+        if (cached != null) {
+            span.log("resolved user from cache");
+            return Single.just(cached);
+        }
+        long version = dependencyTracker.currentVersion();
+        return delegate.resolveUser(span, userId).peek(resolvedUser -> put(resolvedUser, version));
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, User user) {
+        long version = dependencyTracker.currentVersion();
+        return delegate.resolveUser(span, user).peek(resolvedUser -> put(resolvedUser, version));
+    }
+
+    @Override
+    public Single<AuthorizationSnapshot> snapshot(Span span) {
+        return delegate.snapshot(span);
+    }
+
+    /**
+     * @return the cached user, or null if there is no current resolved user with the given id.
+     */
+    ResolvedUser get(String userId) {
+        long now = System.nanoTime();
+        synchronized (users) {
+            CachedUser cachedUser = users.get(userId);
+            if (cachedUser != null) {
+                if (now - cachedUser.createdNanos <= ttlNanos && dependencyTracker.isCurrent(userId, cachedUser.version)) {
+                    hitCount.inc();
+                    return cachedUser.resolvedUser;
+                }
+                remove(userId);
+            }
+        }
+        missCount.inc();
+        return null;
+    }
+
+    /**
+     * Caches a resolved user unless something it was resolved from has changed since version.
+     */
+    void put(ResolvedUser resolvedUser, long version) {
+        long userWeight = 1L + resolvedUser.getRoles().size();
+        if (userWeight > maxWeight || !dependencyTracker.track(resolvedUser, version)) {
+            return;
+        }
+        resolvedUser.markCached();
+        CachedUser cachedUser = new CachedUser(resolvedUser, userWeight, version, System.nanoTime());
+        synchronized (users) {
+            remove(resolvedUser.getUser().getUserId());
+            users.put(resolvedUser.getUser().getUserId(), cachedUser);
+            weight += userWeight;
+            Iterator<CachedUser> leastRecentlyUsed = users.values().iterator();
+            while (weight > maxWeight) {
+                CachedUser evicted = leastRecentlyUsed.next();
+                weight -= evicted.weight;
+                leastRecentlyUsed.remove();
+                dependencyTracker.untrack(evicted.resolvedUser.getUser().getUserId());
+                evictionCount.inc();
+            }
+        }
+    }
+
+    private void remove(String userId) {
+        CachedUser removed = users.remove(userId);
+        if (removed != null) {
+            weight -= removed.weight;
+            dependencyTracker.untrack(userId);
+        }
+    }
+
+    int size() {
+        synchronized (users) {
+            return users.size();
+        }
+    }
+
+    long weight() {
+        synchronized (users) {
+            return weight;
+        }
+    }
+
+    private static final class CachedUser {
+        final ResolvedUser resolvedUser;
+        final long weight;
+        final long version;
+        final long createdNanos;
+
+        CachedUser(ResolvedUser resolvedUser, long weight, long version, long createdNanos) {
+            this.resolvedUser = resolvedUser;
+            this.weight = weight;
+            this.version = version;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.DatasetStateSet;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.PrivilegeSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A role compiled once into a form that can be matched without allocating: privilege and state sets as bitmasks over
+ * the enum ordinals, max valuation as a level and paths as sorted arrays.
+ */
+public final class CompiledRole {
+
+    private static final int ALL_PRIVILEGES = privilegeMask(EnumSet.complementOf(EnumSet.of(Privilege.UNRECOGNIZED)));
+    private static final int ALL_STATES = stateMask(EnumSet.complementOf(EnumSet.of(DatasetState.UNRECOGNIZED)));
+
+    private final Role role;
+    private final int privilegeIncludes;
+    private final int privilegeExcludes;
+    private final int grantedPrivileges;
+    private final int stateIncludes;
+    private final int stateExcludes;
+    private final int grantedStates;
+    private final int maxValuationLevel;
+    private final String[] pathIncludes;
+    private final String[] pathExcludes;
+
+    private CompiledRole(Role role) {
+        this.role = role;
+        PrivilegeSet privileges = role.getPrivileges();
+        this.privilegeIncludes = privilegeMask(privileges.getIncludesList());
+        this.privilegeExcludes = privilegeMask(privileges.getExcludesList());
+        this.grantedPrivileges = (privilegeIncludes == 0 ? ALL_PRIVILEGES : privilegeIncludes & ALL_PRIVILEGES) & ~privilegeExcludes;
+        DatasetStateSet states = role.getStates();
+        this.stateIncludes = stateMask(states.getIncludesList());
+        this.stateExcludes = stateMask(states.getExcludesList());
+        this.grantedStates = (stateIncludes == 0 ? ALL_STATES : stateIncludes & ALL_STATES) & ~stateExcludes;
+        this.maxValuationLevel = InternalValuation.levelOf(role.getMaxValuation());
+        PathSet paths = role.getPaths();
+        this.pathIncludes = paths.getIncludesList().toArray(new String[0]);
+        Arrays.sort(this.pathIncludes);
+        this.pathExcludes = paths.getExcludesList().toArray(new String[0]);
+        Arrays.sort(this.pathExcludes);
+    }
+
+    public static CompiledRole compile(Role role) {
+        return new CompiledRole(role);
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getRoleId() {
+        return role.getRoleId();
+    }
+
+    /**
+     * @param privilege the privilege to match, or null to match any privilege.
+     */
+    boolean matches(Privilege privilege, String path, Valuation valuation, DatasetState state) {
+        return matchesPath(path) && matchesExceptPath(privilege, valuation, state);
+    }
+
+    /**
+     * Same as {@link #matches} for callers that already know that the path matches, e.g. from a {@link RolePathIndex}.
+     */
+    boolean matchesExceptPath(Privilege privilege, Valuation valuation, DatasetState state) {
+        if (privilege != null && !matchesPrivilege(privilege)) {
+            return false;
+        }
+        if (!InternalValuation.grantsAccessTo(maxValuationLevel, InternalValuation.levelOf(valuation))) {
+            return false;
+        }
+        return matchesMask(stateIncludes, stateExcludes, 1 << state.ordinal());
+    }
+
+    boolean matchesPrivilege(Privilege privilege) {
+        return matchesMask(privilegeIncludes, privilegeExcludes, 1 << privilege.ordinal());
+    }
+
+    /**
+     * @return bitmask over {@link Privilege#ordinal()} of the privileges this role grants, with excludes applied.
+     */
+    int grantedPrivileges() {
+        return grantedPrivileges;
+    }
+
+    static Set<Privilege> privilegesOf(int privilegeMask) {
+        Set<Privilege> privileges = EnumSet.noneOf(Privilege.class);
+        for (Privilege privilege : Privilege.values()) {
+            if (privilege != Privilege.UNRECOGNIZED && (privilegeMask & (1 << privilege.ordinal())) != 0) {
+                privileges.add(privilege);
+            }
+        }
+        return privileges;
+    }
+
+    /**
+     * @return bitmask over {@link DatasetState#ordinal()} of the states this role grants, with excludes applied.
+     */
+    int grantedStates() {
+        return grantedStates;
+    }
+
+    int getMaxValuationLevel() {
+        return maxValuationLevel;
+    }
+
+    static Set<DatasetState> statesOf(int stateMask) {
+        Set<DatasetState> states = EnumSet.noneOf(DatasetState.class);
+        for (DatasetState state : DatasetState.values()) {
+            if (state != DatasetState.UNRECOGNIZED && (stateMask & (1 << state.ordinal())) != 0) {
+                states.add(state);
+            }
+        }
+        return states;
+    }
+
+    static boolean grantsAllPrivileges(int privilegeMask) {
+        return (privilegeMask & ALL_PRIVILEGES) == ALL_PRIVILEGES;
+    }
+
+    boolean matchesPath(String path) {
+        for (String exclude : pathExcludes) {
+            if (path.startsWith(exclude)) {
+                return false; // exclude matches
+            }
+        }
+        if (pathIncludes.length == 0) {
+            return true; // empty include set always matches
+        }
+        for (String include : pathIncludes) {
+            if (path.startsWith(include)) {
+                return true; // include matches
+            }
+        }
+        return false; // non-empty include set, but no matches
+    }
+
+    /**
+     * Marks every path in the sorted array that this role's path criteria match. Paths sharing a prefix form a
+     * contiguous range of a sorted array, so each include and exclude costs two binary searches regardless of the
+     * number of paths.
+     */
+    void markMatchingPaths(String[] sortedPaths, BitSet matching) {
+        BitSet included = new BitSet(sortedPaths.length);
+        if (pathIncludes.length == 0) {
+            included.set(0, sortedPaths.length);
+        }
+        for (String include : pathIncludes) {
+            int from = lowerBound(sortedPaths, include);
+            included.set(from, endOfPrefixRange(sortedPaths, include, from));
+        }
+        for (String exclude : pathExcludes) {
+            int from = lowerBound(sortedPaths, exclude);
+            included.clear(from, endOfPrefixRange(sortedPaths, exclude, from));
+        }
+        matching.or(included);
+    }
+
+    /**
+     * @return index of the first path that is not less than key.
+     */
+    private static int lowerBound(String[] sortedPaths, String key) {
+        int low = 0;
+        int high = sortedPaths.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPaths[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first path at or after from that does not start with prefix.
+     */
+    private static int endOfPrefixRange(String[] sortedPaths, String prefix, int from) {
+        int low = from;
+        int high = sortedPaths.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPaths[mid].startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean matchesMask(int includes, int excludes, int bit) {
+        if ((excludes & bit) != 0) {
+            return false; // exclude matches
+        }
+        // empty include set always matches
+        return includes == 0 || (includes & bit) != 0;
+    }
+
+    String[] getPathIncludes() {
+        return pathIncludes;
+    }
+
+    String[] getPathExcludes() {
+        return pathExcludes;
+    }
+
+    private static int privilegeMask(Iterable<Privilege> privileges) {
+        int mask = 0;
+        for (Privilege privilege : privileges) {
+            mask |= 1 << privilege.ordinal();
+        }
+        return mask;
+    }
+
+    private static int stateMask(Iterable<DatasetState> states) {
+        int mask = 0;
+        for (DatasetState state : states) {
+            mask |= 1 << state.ordinal();
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,58 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.role.RoleRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The compiled form of every role read by an {@link AuthorizationSource}, so that a role is compiled once per version
+ * rather than on every access check. A cached role is reused only while it is equal to the role read, so a role
+ * written by another instance is recompiled when it is next read, and a role written through the
+ * {@link RoleRepository} is forgotten at once. The cache holds at most one entry per stored role.
+ */
+public class CompiledRoleCache implements ChangeListener {
+
+    private final Map<String, CompiledRole> compiledRoleById = new ConcurrentHashMap<>();
+
+    public CompiledRoleCache(RoleRepository roleRepository) {
+        roleRepository.addChangeListener(this);
+    }
+
+    /**
+     * For tests, not connected to any repository.
+     */
+    CompiledRoleCache() {
+    }
+
+    CompiledRole compile(Role role) {
+        CompiledRole cached = compiledRoleById.get(role.getRoleId());
+        if (cached != null && (cached.getRole() == role || cached.getRole().equals(role))) {
+            return cached;
+        }
+        CompiledRole compiled = CompiledRole.compile(role);
+        compiledRoleById.put(role.getRoleId(), compiled);
+        return compiled;
+    }
+
+    int size() {
+        return compiledRoleById.size();
+    }
+
+    @Override
+    public void roleUpdated(Role role) {
+        compiledRoleById.remove(role.getRoleId());
+    }
+
+    @Override
+    public void roleDeleted(String roleId) {
+        compiledRoleById.remove(roleId);
+    }
+
+    @Override
+    public void allRolesDeleted() {
+        compiledRoleById.clear();
+    }
+}
@@ -0,0 +1,84 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.useraccess.util.BatchLoader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Reads user, groups and roles from the database on every call, reusing the compiled form of roles that are
+ * unchanged since they were last read. Group and role reads of concurrent calls can be
+ * combined into one query per batch with {@link BatchLoader}s.
+ */
+public class DatabaseAuthorizationSource implements AuthorizationSource {
+
+    final UserRepository userRepository;
+    final GroupRepository groupRepository;
+    final RoleRepository roleRepository;
+    final Function<List<String>, Multi<Group>> groupLoader;
+    final Function<List<String>, Multi<Role>> roleLoader;
+    final CompiledRoleCache compiledRoles;
+
+    public DatabaseAuthorizationSource(UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository) {
+        this.userRepository = userRepository;
+        this.groupRepository = groupRepository;
+        this.roleRepository = roleRepository;
+        this.groupLoader = groupRepository::getGroups;
+        this.roleLoader = roleRepository::getRoles;
+        this.compiledRoles = new CompiledRoleCache(roleRepository);
+    }
+
+    public DatabaseAuthorizationSource(UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository,
+                                       BatchLoader<Group> groupLoader, BatchLoader<Role> roleLoader) {
+        this.userRepository = userRepository;
+        this.groupRepository = groupRepository;
+        this.roleRepository = roleRepository;
+        this.groupLoader = groupLoader::load;
+        this.roleLoader = roleLoader::load;
+        this.compiledRoles = new CompiledRoleCache(roleRepository);
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, String userId) {
+        span.log("calling userRepository.getUser()");
+        return userRepository.getUser(userId).flatMapSingle(user -> resolveUser(span, user));
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, User user) {
+        return groupLoader.apply(user.getGroupsList()).collectList().flatMapSingle(groups -> {
+            Set<String> roleIds = new LinkedHashSet<>(user.getRolesList());
+            for (Group group : groups) {
+                roleIds.addAll(group.getRolesList());
+            }
+            return roleLoader.apply(new ArrayList<>(roleIds)).collectList()
+                    .map(roles -> new ResolvedUser(user, groups, roles.stream().map(compiledRoles::compile).collect(Collectors.toList())));
+        });
+    }
+
+    @Override
+    public Single<AuthorizationSnapshot> snapshot(Span span) {
+        span.log("calling userRepository.getUserList()");
+        return userRepository.getUserList(null).collectList().flatMapSingle(users -> {
+            span.log("calling roleRepository.getRoleList()");
+            return roleRepository.getRoleList(null).collectList().flatMapSingle(roles -> {
+                span.log("calling groupRepository.getAllGroups()");
+                return groupRepository.getAllGroups().collectList()
+                        .map(groups -> AuthorizationSnapshot.empty().replaceAll(users, groups, roles));
+            });
+        });
+    }
+}
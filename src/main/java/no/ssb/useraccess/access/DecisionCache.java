@@ -0,0 +1,108 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of access decisions keyed by the full (user, privilege, path, valuation, state) tuple. The least
+ * recently used decision is evicted when full. A decision is discarded when it is older than the time-to-live, or when
+ * the {@link UserDependencyTracker} reports that the user, one of its groups or one of its roles has changed since
+ * the decision was made. The time-to-live bounds how long writes made by other instances can go unnoticed. Every cached
+ * decision is tracked by the {@link UserDependencyTracker} until it is evicted or discarded.
+ */
+public final class DecisionCache {
+
+    private final UserDependencyTracker dependencyTracker;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Counter hitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessDecisionCacheHitCount");
+    private final Counter missCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessDecisionCacheMissCount");
+    private final Counter evictionCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessDecisionCacheEvictionCount");
+
+    private final Map<AccessCheck, Decision> decisions;
+
+    public DecisionCache(UserDependencyTracker dependencyTracker, int maxSize, Duration ttl) {
+        this.dependencyTracker = dependencyTracker;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.decisions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AccessCheck, Decision> eldest) {
+                if (size() > DecisionCache.this.maxSize) {
+                    evictionCount.inc();
+                    dependencyTracker.untrack(eldest.getKey().userId);
+                    return true;
+                }
+                return false;
+            }
+        };
+        MetricsUtil.gauge("accessDecisionCacheSize", this::size);
+    }
+
+    /**
+     * @return the version to pass to {@link #put} for a decision that is about to be made.
+     */
+    long currentVersion() {
+        return dependencyTracker.currentVersion();
+    }
+
+    /**
+     * @return the cached decision, or null if there is no current decision for the check.
+     */
+    Boolean get(AccessCheck check) {
+        long now = System.nanoTime();
+        synchronized (decisions) {
+            Decision decision = decisions.get(check);
+            if (decision != null) {
+                if (now - decision.createdNanos <= ttlNanos && dependencyTracker.isCurrent(check.userId, decision.version)) {
+                    hitCount.inc();
+                    return decision.granted;
+                }
+                decisions.remove(check);
+                dependencyTracker.untrack(check.userId);
+            }
+        }
+        missCount.inc();
+        return null;
+    }
+
+    /**
+     * Caches a decision unless something it was made from has changed since version.
+     */
+    void put(AccessCheck check, ResolvedUser resolvedUser, boolean granted, long version) {
+        if (!dependencyTracker.track(resolvedUser, version)) {
+            return;
+        }
+        Decision decision = new Decision(granted, version, System.nanoTime());
+        synchronized (decisions) {
+            if (decisions.put(check, decision) != null) {
+                dependencyTracker.untrack(check.userId);
+            }
+        }
+    }
+
+    int size() {
+        synchronized (decisions) {
+            return decisions.size();
+        }
+    }
+
+    private static final class Decision {
+        final boolean granted;
+        final long version;
+        final long createdNanos;
+
+        Decision(boolean granted, long version, long createdNanos) {
+            this.granted = granted;
+            this.version = version;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
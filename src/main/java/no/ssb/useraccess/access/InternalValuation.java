@@ -1,18 +1,57 @@
 package no.ssb.useraccess.access;
 
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+
 enum InternalValuation {
     OPEN(1),
     INTERNAL(2),
     SHIELDED(3),
     SENSITIVE(4);
 
+    /**
+     * Level of valuations without an internal counterpart, e.g. UNRECOGNIZED. Such a level neither grants nor is
+     * granted access.
+     */
+    static final int UNKNOWN_LEVEL = -1;
+
+    private static final int[] LEVELS_BY_VALUATION_ORDINAL = new int[Valuation.values().length];
+
+    static {
+        for (Valuation valuation : Valuation.values()) {
+            try {
+                LEVELS_BY_VALUATION_ORDINAL[valuation.ordinal()] = InternalValuation.valueOf(valuation.name()).level;
+            } catch (IllegalArgumentException e) {
+                LEVELS_BY_VALUATION_ORDINAL[valuation.ordinal()] = UNKNOWN_LEVEL;
+            }
+        }
+    }
+
     private final int level;
 
     private InternalValuation(int level) {
         this.level = level;
     }
 
-    boolean grantsAccessTo(InternalValuation other) {
-        return level >= other.level;
+    /**
+     * @return the level of the given valuation without going through the enum name.
+     */
+    static int levelOf(Valuation valuation) {
+        return LEVELS_BY_VALUATION_ORDINAL[valuation.ordinal()];
+    }
+
+    /**
+     * @return the valuation with the given level, or null if no valuation has that level.
+     */
+    static InternalValuation ofLevel(int level) {
+        for (InternalValuation valuation : values()) {
+            if (valuation.level == level) {
+                return valuation;
+            }
+        }
+        return null;
+    }
+
+    static boolean grantsAccessTo(int maxLevel, int level) {
+        return maxLevel != UNKNOWN_LEVEL && level != UNKNOWN_LEVEL && maxLevel >= level;
     }
 }
@@ -0,0 +1,110 @@
+package no.ssb.useraccess.access;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable map from id to value that is modified by returning a new map. A modified map shares an immutable base map
+ * with the map it was made from and copies only the changes made since the base, so a write copies the changes rather
+ * than every entry. The changes are folded into a new base once there are more than the square root of the base
+ * size, which keeps both the copy per write and the amortized cost of folding at about the square root of the size.
+ */
+final class OverlayMap<V> {
+
+    private static final int MIN_CHANGES_BEFORE_FOLDING = 64;
+
+    private static final OverlayMap<?> EMPTY = new OverlayMap<>(Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    private final Map<String, V> base;
+    // null values are removals from base
+    private final Map<String, V> changes;
+    private final int size;
+
+    private volatile Collection<V> values;
+
+    private OverlayMap(Map<String, V> base, Map<String, V> changes, int size) {
+        this.base = base;
+        this.changes = changes;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> OverlayMap<V> empty() {
+        return (OverlayMap<V>) EMPTY;
+    }
+
+    /**
+     * @param map owned by the returned map from now on.
+     */
+    static <V> OverlayMap<V> of(Map<String, V> map) {
+        return new OverlayMap<>(map, Collections.emptyMap(), map.size());
+    }
+
+    V get(String key) {
+        if (changes.containsKey(key)) {
+            return changes.get(key);
+        }
+        return base.get(key);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a map where key maps to value, or where key is absent if value is null.
+     */
+    OverlayMap<V> with(String key, V value) {
+        boolean present = get(key) != null;
+        int newSize = size + (value == null ? (present ? -1 : 0) : (present ? 0 : 1));
+        Map<String, V> newChanges = new HashMap<>(changes);
+        if (value == null && !base.containsKey(key)) {
+            newChanges.remove(key);
+        } else {
+            newChanges.put(key, value);
+        }
+        if (newChanges.size() > Math.max(MIN_CHANGES_BEFORE_FOLDING, (int) Math.sqrt(base.size()))) {
+            Map<String, V> folded = new HashMap<>(base);
+            newChanges.forEach((changedKey, changedValue) -> {
+                if (changedValue == null) {
+                    folded.remove(changedKey);
+                } else {
+                    folded.put(changedKey, changedValue);
+                }
+            });
+            return new OverlayMap<>(folded, Collections.emptyMap(), newSize);
+        }
+        return new OverlayMap<>(base, newChanges, newSize);
+    }
+
+    /**
+     * @return the values in no particular order, computed on first use.
+     */
+    Collection<V> values() {
+        Collection<V> result = values;
+        if (result == null) {
+            if (changes.isEmpty()) {
+                result = Collections.unmodifiableCollection(base.values());
+            } else {
+                List<V> merged = new ArrayList<>(size);
+                base.forEach((key, value) -> {
+                    if (!changes.containsKey(key)) {
+                        merged.add(value);
+                    }
+                });
+                changes.values().forEach(value -> {
+                    if (value != null) {
+                        merged.add(value);
+                    }
+                });
+                result = Collections.unmodifiableList(merged);
+            }
+            values = result;
+        }
+        return result;
+    }
+}
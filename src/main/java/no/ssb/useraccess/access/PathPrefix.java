@@ -0,0 +1,177 @@
+package no.ssb.useraccess.access;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A path prefix with the excluded sub-prefixes subtracted. A path matches if it starts with the prefix and with none of
+ * the excludes.
+ */
+final class PathPrefix {
+
+    private final String prefix;
+    private final List<String> excludes;
+
+    PathPrefix(String prefix, List<String> excludes) {
+        this.prefix = prefix;
+        this.excludes = excludes;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    List<String> getExcludes() {
+        return excludes;
+    }
+
+    boolean matches(String path) {
+        if (!path.startsWith(prefix)) {
+            return false;
+        }
+        for (String exclude : excludes) {
+            if (path.startsWith(exclude)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every path matching other also matches this prefix.
+     */
+    private boolean contains(PathPrefix other) {
+        if (!matches(other.prefix)) {
+            return false;
+        }
+        for (String exclude : excludes) {
+            if (exclude.startsWith(other.prefix) && other.excludes.stream().noneMatch(exclude::startsWith)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The effective prefixes of a single role, i.e. each include with the excludes below it. Includes that are
+     * themselves excluded are left out and an empty include set is represented by "/".
+     */
+    static List<PathPrefix> of(CompiledRole role) {
+        String[] includes = role.getPathIncludes().length == 0 ? new String[]{"/"} : role.getPathIncludes();
+        List<PathPrefix> result = new ArrayList<>(includes.length);
+        for (String include : includes) {
+            List<String> excludes = new ArrayList<>();
+            boolean excluded = false;
+            for (String exclude : role.getPathExcludes()) {
+                if (include.startsWith(exclude)) {
+                    excluded = true;
+                    break;
+                }
+                if (exclude.startsWith(include) && (excludes.isEmpty() || !exclude.startsWith(excludes.get(excludes.size() - 1)))) {
+                    excludes.add(exclude); // sorted, so a nested exclude follows the one containing it
+                }
+            }
+            if (!excluded) {
+                result.add(new PathPrefix(include, excludes));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges prefixes into an equivalent list, where a path matches the result if and only if it matches any of the
+     * given prefixes. An exclude that another prefix gives access to is narrowed to what that prefix excludes, and
+     * prefixes contained in another prefix are dropped.
+     */
+    static List<PathPrefix> union(List<PathPrefix> prefixes) {
+        Map<String, PathPrefix> byPrefix = new LinkedHashMap<>();
+        for (PathPrefix pathPrefix : prefixes) {
+            byPrefix.merge(pathPrefix.prefix, pathPrefix, PathPrefix::intersectExcludes);
+        }
+        List<PathPrefix> result = new ArrayList<>(byPrefix.values());
+        result.sort(Comparator.comparing(PathPrefix::getPrefix));
+        boolean changed = true;
+        while (changed) { // terminates as every narrowing makes an exclude strictly longer
+            changed = false;
+            for (int i = 0; i < result.size(); i++) {
+                PathPrefix narrowed = narrowExcludes(result, i);
+                if (narrowed != null) {
+                    result.set(i, narrowed);
+                    changed = true;
+                }
+            }
+        }
+        return withoutContained(result);
+    }
+
+    /**
+     * @return the prefix at index with excludes narrowed by the other prefixes, or null if no exclude was narrowed.
+     */
+    private static PathPrefix narrowExcludes(List<PathPrefix> prefixes, int index) {
+        PathPrefix pathPrefix = prefixes.get(index);
+        TreeSet<String> excludes = new TreeSet<>();
+        boolean narrowed = false;
+        for (String exclude : pathPrefix.excludes) {
+            PathPrefix other = null;
+            for (int i = 0; i < prefixes.size() && other == null; i++) {
+                if (i != index && prefixes.get(i).matches(exclude)) { // matches the exclude, though maybe not all below it
+                    other = prefixes.get(i);
+                }
+            }
+            if (other == null) {
+                excludes.add(exclude);
+                continue;
+            }
+            narrowed = true;
+            for (String otherExclude : other.excludes) {
+                if (otherExclude.startsWith(exclude)) {
+                    excludes.add(otherExclude);
+                }
+            }
+        }
+        if (!narrowed) {
+            return null;
+        }
+        List<String> outermost = new ArrayList<>(excludes.size());
+        for (String exclude : excludes) {
+            if (outermost.isEmpty() || !exclude.startsWith(outermost.get(outermost.size() - 1))) {
+                outermost.add(exclude); // sorted, so a nested exclude follows the one containing it
+            }
+        }
+        return new PathPrefix(pathPrefix.prefix, outermost);
+    }
+
+    /**
+     * @param sorted prefixes sorted and distinct by prefix, so that a prefix can only be contained in an earlier one.
+     */
+    private static List<PathPrefix> withoutContained(List<PathPrefix> sorted) {
+        List<PathPrefix> result = new ArrayList<>(sorted.size());
+        for (PathPrefix candidate : sorted) {
+            if (result.stream().noneMatch(kept -> kept.contains(candidate))) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Two entries for the same prefix exclude only the paths that both exclude.
+     */
+    private static PathPrefix intersectExcludes(PathPrefix a, PathPrefix b) {
+        TreeSet<String> excludes = new TreeSet<>();
+        for (String excludeA : a.excludes) {
+            for (String excludeB : b.excludes) {
+                if (excludeB.startsWith(excludeA)) {
+                    excludes.add(excludeB);
+                } else if (excludeA.startsWith(excludeB)) {
+                    excludes.add(excludeA);
+                }
+            }
+        }
+        return new PathPrefix(a.prefix, new ArrayList<>(excludes));
+    }
+}
@@ -0,0 +1,81 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A user together with the groups it is member of and every role granted directly or through those groups,
+ * compiled for matching.
+ */
+public class ResolvedUser {
+
+    private final User user;
+    private final List<Group> groups;
+    private final List<CompiledRole> roles;
+    // set once the user is cached, as only a cached user answers enough lookups to repay building the index
+    private volatile boolean cached;
+    private volatile RolePathIndex pathIndex;
+
+    public ResolvedUser(User user, List<Group> groups, List<CompiledRole> roles) {
+        this.user = user;
+        this.groups = groups;
+        this.roles = roles;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    public List<CompiledRole> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Visits the roles of this user whose path criteria match the given path, until the visitor returns false.
+     *
+     * @return false if the visitor stopped the visit.
+     */
+    boolean forEachRole(String path, Predicate<CompiledRole> visitor) {
+        RolePathIndex index = pathIndex;
+        if (index == null) {
+            if (!cached) {
+                for (CompiledRole role : roles) {
+                    if (role.matchesPath(path) && !visitor.test(role)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            index = buildPathIndex();
+        }
+        return index.forEachCandidate(path, visitor);
+    }
+
+    private synchronized RolePathIndex buildPathIndex() {
+        RolePathIndex index = pathIndex;
+        if (index == null) {
+            index = new RolePathIndex(roles);
+            pathIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Marks this user as kept by a cache, so that later path lookups go through a path index built on first use
+     * rather than scanning every role.
+     */
+    void markCached() {
+        cached = true;
+    }
+
+    boolean isPathIndexed() {
+        return pathIndex != null;
+    }
+}
@@ -0,0 +1,161 @@
+package no.ssb.useraccess.access;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Radix tree over the include and exclude path prefixes of a set of roles. Looking up a path walks the path once and
+ * returns the roles whose path criteria match it, with the same semantics as {@link CompiledRole#matchesPath}: no
+ * exclude may be a prefix of the path, and either the include set is empty or one of the includes is a prefix of the
+ * path. Prefixes are compared character by character, so "/user/someone" also matches "/user/someone-else" just as
+ * {@link CompiledRole#matchesPath} does.
+ */
+final class RolePathIndex {
+
+    private static final int[] NONE = new int[0];
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final List<CompiledRole> roles;
+    private final Node root = new Node("");
+    private final BitSet unrestricted = new BitSet();
+
+    RolePathIndex(Collection<CompiledRole> roles) {
+        this.roles = new ArrayList<>(roles);
+        for (int i = 0; i < this.roles.size(); i++) {
+            CompiledRole role = this.roles.get(i);
+            if (role.getPathIncludes().length == 0) {
+                unrestricted.set(i);
+            }
+            for (String include : role.getPathIncludes()) {
+                Node node = root.insert(include, 0);
+                node.includes = append(node.includes, i);
+            }
+            for (String exclude : role.getPathExcludes()) {
+                Node node = root.insert(exclude, 0);
+                node.excludes = append(node.excludes, i);
+            }
+        }
+    }
+
+    /**
+     * @return the roles whose path criteria match the given path, in the order they were indexed.
+     */
+    List<CompiledRole> candidates(String path) {
+        List<CompiledRole> result = new ArrayList<>();
+        forEachCandidate(path, result::add);
+        return result;
+    }
+
+    /**
+     * Visits the roles whose path criteria match the given path, in the order they were indexed, until the visitor
+     * returns false. The bit sets of the walk are reused by the calling thread, so a lookup does not allocate.
+     *
+     * @return false if the visitor stopped the visit.
+     */
+    boolean forEachCandidate(String path, Predicate<CompiledRole> visitor) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.inUse) {
+            scratch = new Scratch(); // a visitor looking up another path
+        }
+        scratch.inUse = true;
+        try {
+            BitSet included = scratch.included;
+            BitSet excluded = scratch.excluded;
+            included.clear();
+            excluded.clear();
+            included.or(unrestricted);
+            Node node = root;
+            int pos = 0;
+            while (true) {
+                for (int i : node.includes) {
+                    included.set(i);
+                }
+                for (int i : node.excludes) {
+                    excluded.set(i);
+                }
+                if (pos == path.length()) {
+                    break;
+                }
+                Node child = node.children.get(path.charAt(pos));
+                if (child == null || !path.startsWith(child.label, pos)) {
+                    break;
+                }
+                pos += child.label.length();
+                node = child;
+            }
+            included.andNot(excluded);
+            for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+                if (!visitor.test(roles.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            scratch.inUse = false;
+        }
+    }
+
+    int size() {
+        return roles.size();
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static final class Scratch {
+        final BitSet included = new BitSet();
+        final BitSet excluded = new BitSet();
+        boolean inUse;
+    }
+
+    private static final class Node {
+        String label;
+        final Map<Character, Node> children = new HashMap<>(4);
+        int[] includes = NONE;
+        int[] excludes = NONE;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the node representing key, creating and splitting nodes as needed.
+         */
+        Node insert(String key, int pos) {
+            Node node = this;
+            while (pos < key.length()) {
+                char c = key.charAt(pos);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node(key.substring(pos));
+                    node.children.put(c, child);
+                    return child;
+                }
+                int common = 0;
+                int max = Math.min(child.label.length(), key.length() - pos);
+                while (common < max && child.label.charAt(common) == key.charAt(pos + common)) {
+                    common++;
+                }
+                if (common < child.label.length()) {
+                    Node split = new Node(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    split.children.put(child.label.charAt(0), child);
+                    node.children.put(c, split);
+                    child = split;
+                }
+                node = child;
+                pos += common;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the user, its groups and its roles from the database on every call, using one query instead of the three
+ * dependent queries of {@link DatabaseAuthorizationSource}. Snapshots are read as by {@link DatabaseAuthorizationSource}.
+ */
+public class SingleQueryAuthorizationSource extends DatabaseAuthorizationSource {
+
+    final AccessRepository accessRepository;
+
+    public SingleQueryAuthorizationSource(AccessRepository accessRepository, UserRepository userRepository,
+                                          GroupRepository groupRepository, RoleRepository roleRepository) {
+        super(userRepository, groupRepository, roleRepository);
+        this.accessRepository = accessRepository;
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, String userId) {
+        span.log("calling accessRepository.getUserWithGroupsAndRoles()");
+        return accessRepository.getUserWithGroupsAndRoles(userId).map(found -> new ResolvedUser(found.getUser(), found.getGroups(), compile(found)));
+    }
+
+    /**
+     * Resolves the groups and roles of the stored user with the same id, which is the given user when it has just
+     * been auto-created. Falls back to the three queries if that user is no longer stored.
+     */
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, User user) {
+        span.log("calling accessRepository.getUserWithGroupsAndRoles()");
+        return accessRepository.getUserWithGroupsAndRoles(user.getUserId())
+                .map(found -> new ResolvedUser(user, found.getGroups(), compile(found)))
+                .switchIfEmpty(Single.defer(() -> super.resolveUser(span, user)));
+    }
+
+    private List<CompiledRole> compile(AccessRepository.UserWithGroupsAndRoles found) {
+        return found.getRoles().stream().map(compiledRoles::compile).collect(Collectors.toList());
+    }
+}
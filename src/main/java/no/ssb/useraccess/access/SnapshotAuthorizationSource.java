@@ -0,0 +1,170 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Evaluates access against an in-memory {@link AuthorizationSnapshot}, so that resolving a user never touches the
+ * database. The snapshot is loaded once at startup and then kept up to date copy-on-write from the change events of
+ * the repositories. Writes made by other instances are only picked up by {@link #reload()}.
+ * <p>
+ * The change events that arrive while a reload reads the database are recorded and re-applied to the loaded content,
+ * as the reload may have read the entities before the writes behind them.
+ */
+public class SnapshotAuthorizationSource implements AuthorizationSource, ChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotAuthorizationSource.class);
+
+    final UserRepository userRepository;
+    final GroupRepository groupRepository;
+    final RoleRepository roleRepository;
+
+    private final AtomicReference<AuthorizationSnapshot> snapshot = new AtomicReference<>(AuthorizationSnapshot.empty());
+
+    /**
+     * The changes applied since each reload in progress started, guarded by this.
+     */
+    private final List<List<UnaryOperator<AuthorizationSnapshot>>> reloadsInProgress = new ArrayList<>();
+
+    public SnapshotAuthorizationSource(UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository) {
+        this.userRepository = userRepository;
+        this.groupRepository = groupRepository;
+        this.roleRepository = roleRepository;
+        userRepository.addChangeListener(this);
+        groupRepository.addChangeListener(this);
+        roleRepository.addChangeListener(this);
+        MetricsUtil.gauge("accessSnapshotVersion", () -> snapshot.get().getVersion());
+        MetricsUtil.gauge("accessSnapshotUsers", () -> snapshot.get().getUserCount());
+        MetricsUtil.gauge("accessSnapshotGroups", () -> snapshot.get().getGroupCount());
+        MetricsUtil.gauge("accessSnapshotRoles", () -> snapshot.get().getRoleCount());
+    }
+
+    /**
+     * Replaces the snapshot with the current content of the database.
+     */
+    public Single<AuthorizationSnapshot> reload() {
+        return Single.defer(() -> {
+            List<UnaryOperator<AuthorizationSnapshot>> changes = new ArrayList<>();
+            synchronized (this) {
+                reloadsInProgress.add(changes);
+            }
+            return userRepository.getUserList(null).collectList().flatMapSingle(users ->
+                    groupRepository.getAllGroups().collectList().flatMapSingle(groups ->
+                            roleRepository.getRoleList(null).collectList().map(roles -> {
+                                AuthorizationSnapshot loaded;
+                                synchronized (this) {
+                                    reloadsInProgress.remove(changes);
+                                    loaded = snapshot.get().replaceAll(users, groups, roles);
+                                    for (UnaryOperator<AuthorizationSnapshot> change : changes) {
+                                        loaded = change.apply(loaded);
+                                    }
+                                    snapshot.set(loaded);
+                                }
+                                LOG.info("Loaded authorization snapshot version {} with {} users, {} groups and {} roles, and re-applied {} changes",
+                                        loaded.getVersion(), users.size(), groups.size(), roles.size(), changes.size());
+                                return loaded;
+                            })))
+                    .onTerminate(() -> {
+                        synchronized (this) {
+                            reloadsInProgress.remove(changes);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Applies the change to the snapshot, and records it for the reloads in progress.
+     */
+    private synchronized void apply(UnaryOperator<AuthorizationSnapshot> change) {
+        snapshot.updateAndGet(change);
+        for (List<UnaryOperator<AuthorizationSnapshot>> changes : reloadsInProgress) {
+            changes.add(change);
+        }
+    }
+
+    AuthorizationSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, String userId) {
+        AuthorizationSnapshot current = snapshot.get();
+        span.log(Map.of("event", "resolving user from snapshot", "version", current.getVersion()));
+        User user = current.getUser(userId);
+        if (user == null) {
+            return Single.empty();
+        }
+        return Single.just(current.resolve(user));
+    }
+
+    @Override
+    public Single<ResolvedUser> resolveUser(Span span, User user) {
+        return Single.just(snapshot.get().resolve(user));
+    }
+
+    @Override
+    public Single<AuthorizationSnapshot> snapshot(Span span) {
+        return Single.just(snapshot.get());
+    }
+
+    @Override
+    public void userUpdated(User user) {
+        apply(current -> current.withUser(user));
+    }
+
+    @Override
+    public void userDeleted(String userId) {
+        apply(current -> current.withoutUser(userId));
+    }
+
+    @Override
+    public void allUsersDeleted() {
+        apply(AuthorizationSnapshot::withoutUsers);
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+        apply(current -> current.withGroup(group));
+    }
+
+    @Override
+    public void groupDeleted(String groupId) {
+        apply(current -> current.withoutGroup(groupId));
+    }
+
+    @Override
+    public void allGroupsDeleted() {
+        apply(AuthorizationSnapshot::withoutGroups);
+    }
+
+    @Override
+    public void roleUpdated(Role role) {
+        apply(current -> current.withRole(role));
+    }
+
+    @Override
+    public void roleDeleted(String roleId) {
+        apply(current -> current.withoutRole(roleId));
+    }
+
+    @Override
+    public void allRolesDeleted() {
+        apply(AuthorizationSnapshot::withoutRoles);
+    }
+}
@@ -0,0 +1,64 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.useraccess.util.EntityCache;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.time.Duration;
+
+/**
+ * Bounded cache of user ids that are neither stored nor auto-creatable, so that repeated checks for such ids are denied
+ * without touching the database. An id is forgotten when a user with that id is written through the
+ * {@link UserRepository}, and after the time-to-live for users created by other instances.
+ */
+public class UnknownUserCache implements ChangeListener {
+
+    private final EntityCache<Boolean> unknownUserIds;
+
+    private final Counter hitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("accessUnknownUserCacheHitCount");
+
+    public UnknownUserCache(UserRepository userRepository, int maxSize, Duration ttl) {
+        this(maxSize, ttl);
+        userRepository.addChangeListener(this);
+    }
+
+    /**
+     * For tests, not connected to any repository.
+     */
+    UnknownUserCache(int maxSize, Duration ttl) {
+        this.unknownUserIds = new EntityCache<>(maxSize, ttl);
+        MetricsUtil.gauge("accessUnknownUserCacheSize", unknownUserIds::size);
+    }
+
+    /**
+     * @return the version to pass to {@link #markUnknown} for a user that is about to be looked up.
+     */
+    long version() {
+        return unknownUserIds.version();
+    }
+
+    boolean isUnknown(String userId) {
+        if (unknownUserIds.get(userId) == null) {
+            return false;
+        }
+        hitCount.inc();
+        return true;
+    }
+
+    /**
+     * Remembers that the user does not exist, unless a user was written since version.
+     */
+    void markUnknown(String userId, long version) {
+        unknownUserIds.putIfUnchanged(userId, Boolean.TRUE, version);
+    }
+
+    @Override
+    public void userUpdated(User user) {
+        unknownUserIds.remove(user.getUserId());
+    }
+}
@@ -0,0 +1,221 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which user, group and role documents each cached resolved user depends on, so that caches of per-user results
+ * can tell whether an entry is still current. A cache reads {@link #currentVersion()} before resolving a user,
+ * registers the resolved user with {@link #track(ResolvedUser, long)} when it caches a result, checks
+ * {@link #isCurrent(String, long)} when it reads the result and calls {@link #untrack(String)} when it drops it.
+ * <p>
+ * Every change through the repositories advances a version clock. A change invalidates the tracked users it affects,
+ * found for group and role changes through a reverse index, and a result is only cached if nothing at all changed
+ * while its user was being resolved. The tracker therefore only holds the users with at least one cached result, and
+ * the groups and roles those users reference: a user is forgotten, and removed from the reverse index, when the
+ * last result tracked for it is dropped.
+ */
+public final class UserDependencyTracker implements ChangeListener {
+
+    private final AtomicLong clock = new AtomicLong();
+    private volatile long allInvalidatedAt;
+    // guarded by this
+    private long lastChangeAt;
+    private final Map<String, Dependent> dependentByUserId = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<String, Set<String>> userIdsByGroupId = new HashMap<>();
+    private final Map<String, Set<String>> userIdsByRoleId = new HashMap<>();
+
+    public UserDependencyTracker(UserRepository userRepository, GroupRepository groupRepository, RoleRepository roleRepository) {
+        userRepository.addChangeListener(this);
+        groupRepository.addChangeListener(this);
+        roleRepository.addChangeListener(this);
+    }
+
+    /**
+     * For tests, not connected to any repository.
+     */
+    UserDependencyTracker() {
+    }
+
+    /**
+     * @return the version to pass to track and isCurrent for a user that is about to be resolved.
+     */
+    long currentVersion() {
+        return clock.get();
+    }
+
+    /**
+     * Registers a result cached for the user, and the groups and roles the user depends on, including those
+     * referenced but missing. Every registered result must be released with {@link #untrack(String)}.
+     *
+     * @param version the value of {@link #currentVersion()} from before the user was resolved.
+     * @return true if nothing changed since version, in which case the result is registered and may be cached.
+     */
+    synchronized boolean track(ResolvedUser resolvedUser, long version) {
+        if (lastChangeAt > version || allInvalidatedAt > version) {
+            return false;
+        }
+        User user = resolvedUser.getUser();
+        String userId = user.getUserId();
+        Dependent dependent = dependentByUserId.computeIfAbsent(userId, id -> new Dependent());
+        dependent.results++;
+        for (String groupId : user.getGroupsList()) {
+            index(userIdsByGroupId, dependent.groupIds, groupId, userId);
+        }
+        for (String roleId : user.getRolesList()) {
+            index(userIdsByRoleId, dependent.roleIds, roleId, userId);
+        }
+        for (Group group : resolvedUser.getGroups()) {
+            for (String roleId : group.getRolesList()) {
+                index(userIdsByRoleId, dependent.roleIds, roleId, userId);
+            }
+        }
+        return true;
+    }
+
+    private static void index(Map<String, Set<String>> userIdsById, Set<String> ids, String id, String userId) {
+        if (ids.add(id)) {
+            userIdsById.computeIfAbsent(id, key -> new HashSet<>()).add(userId);
+        }
+    }
+
+    /**
+     * Releases a result registered by {@link #track}, forgetting the user when it was the last one.
+     */
+    synchronized void untrack(String userId) {
+        Dependent dependent = dependentByUserId.get(userId);
+        if (dependent == null || --dependent.results > 0) {
+            return;
+        }
+        dependentByUserId.remove(userId);
+        for (String groupId : dependent.groupIds) {
+            unindex(userIdsByGroupId, groupId, userId);
+        }
+        for (String roleId : dependent.roleIds) {
+            unindex(userIdsByRoleId, roleId, userId);
+        }
+    }
+
+    private static void unindex(Map<String, Set<String>> userIdsById, String id, String userId) {
+        Set<String> userIds = userIdsById.get(id);
+        if (userIds != null && userIds.remove(userId) && userIds.isEmpty()) {
+            userIdsById.remove(id);
+        }
+    }
+
+    /**
+     * @return true if nothing the tracked user depends on has changed since version.
+     */
+    boolean isCurrent(String userId, long version) {
+        if (allInvalidatedAt > version) {
+            return false;
+        }
+        Dependent dependent = dependentByUserId.get(userId);
+        return dependent == null || dependent.invalidatedAt <= version;
+    }
+
+    /**
+     * @return the number of users with cached results.
+     */
+    int size() {
+        return dependentByUserId.size();
+    }
+
+    /**
+     * @return the number of groups and roles referenced by users with cached results.
+     */
+    synchronized int indexSize() {
+        return userIdsByGroupId.size() + userIdsByRoleId.size();
+    }
+
+    private synchronized void invalidateUser(String userId) {
+        lastChangeAt = clock.incrementAndGet();
+        invalidateTracked(userId);
+    }
+
+    private void invalidateTracked(String userId) {
+        Dependent dependent = dependentByUserId.get(userId);
+        if (dependent != null) {
+            dependent.invalidatedAt = lastChangeAt;
+        }
+    }
+
+    private synchronized void invalidate(Map<String, Set<String>> userIdsById, String id) {
+        lastChangeAt = clock.incrementAndGet();
+        Set<String> userIds = userIdsById.get(id);
+        if (userIds != null) {
+            userIds.forEach(this::invalidateTracked);
+        }
+    }
+
+    private synchronized void invalidateAll() {
+        lastChangeAt = clock.incrementAndGet();
+        allInvalidatedAt = lastChangeAt;
+    }
+
+    @Override
+    public void userUpdated(User user) {
+        invalidateUser(user.getUserId());
+    }
+
+    @Override
+    public void userDeleted(String userId) {
+        invalidateUser(userId);
+    }
+
+    @Override
+    public void allUsersDeleted() {
+        invalidateAll();
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+        invalidate(userIdsByGroupId, group.getGroupId());
+    }
+
+    @Override
+    public void groupDeleted(String groupId) {
+        invalidate(userIdsByGroupId, groupId);
+    }
+
+    @Override
+    public void allGroupsDeleted() {
+        invalidateAll();
+    }
+
+    @Override
+    public void roleUpdated(Role role) {
+        invalidate(userIdsByRoleId, role.getRoleId());
+    }
+
+    @Override
+    public void roleDeleted(String roleId) {
+        invalidate(userIdsByRoleId, roleId);
+    }
+
+    @Override
+    public void allRolesDeleted() {
+        invalidateAll();
+    }
+
+    private static final class Dependent {
+        // guarded by the tracker
+        int results;
+        final Set<String> groupIds = new HashSet<>();
+        final Set<String> roleIds = new HashSet<>();
+        volatile long invalidatedAt;
+    }
+}
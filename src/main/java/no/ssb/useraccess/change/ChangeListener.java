@@ -0,0 +1,38 @@
+package no.ssb.useraccess.change;
+
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+
+/**
+ * Notified by the repositories after a write has been committed to the database.
+ */
+public interface ChangeListener {
+
+    default void userUpdated(User user) {
+    }
+
+    default void userDeleted(String userId) {
+    }
+
+    default void allUsersDeleted() {
+    }
+
+    default void groupUpdated(Group group) {
+    }
+
+    default void groupDeleted(String groupId) {
+    }
+
+    default void allGroupsDeleted() {
+    }
+
+    default void roleUpdated(Role role) {
+    }
+
+    default void roleDeleted(String roleId) {
+    }
+
+    default void allRolesDeleted() {
+    }
+}
@@ -0,0 +1,103 @@
+package no.ssb.useraccess.db;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes an {@link InstrumentedConnectionPool} within [minSize, maxSize] once per interval. The pool grows by step
+ * when a connection was waited for longer than the wait threshold during the interval, or when threads are waiting
+ * now. It shrinks by step when nothing waited and less than half of the connections are in use.
+ * <p>
+ * Connections are never closed by a resize. HikariCP closes idle connections above its minimum idle once they have
+ * been idle for its idle timeout, but only while the minimum idle is below the maximum size. Every resize therefore
+ * sets the minimum idle to the minimum idle the pool was configured with, lowered to one below the new size when that
+ * is smaller, so that a shrunk pool retires its surplus and a grown pool gets its configured warm floor back.
+ * <p>
+ * Resizes are counted in dbPoolGrowCount and dbPoolShrinkCount, prefixed by the pool name instead of dbPool.
+ */
+public class AdaptivePoolSizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private final InstrumentedConnectionPool connectionPool;
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long waitThresholdNanos;
+    private final int configuredMinIdle;
+
+    private final Counter growCount;
+    private final Counter shrinkCount;
+
+    public AdaptivePoolSizer(InstrumentedConnectionPool connectionPool, int minSize, int maxSize, int step, Duration waitThreshold) {
+        if (minSize < 1 || maxSize < minSize || step < 1) {
+            throw new IllegalArgumentException("Adaptive pool sizing needs 1 <= min-size <= max-size and step >= 1");
+        }
+        this.connectionPool = connectionPool;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = step;
+        this.waitThresholdNanos = waitThreshold.toNanos();
+        this.configuredMinIdle = connectionPool.config().getMinimumIdle();
+        MetricRegistry registry = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+        this.growCount = registry.counter(connectionPool.getName() + "GrowCount");
+        this.shrinkCount = registry.counter(connectionPool.getName() + "ShrinkCount");
+    }
+
+    public void start(ScheduledExecutorService scheduler, Duration interval) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                adjust();
+            } catch (RuntimeException e) {
+                // keep the schedule, which ends on an uncaught exception
+                LOG.warn("Failed to adjust the connection pool size", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies one sizing decision.
+     *
+     * @return the maximum pool size after the decision.
+     */
+    public int adjust() {
+        HikariPoolMXBean pool = connectionPool.pool();
+        HikariConfigMXBean config = connectionPool.config();
+        long maxWaitNanos = connectionPool.takeMaxAcquireNanos();
+        int waiting = pool.getThreadsAwaitingConnection();
+        int size = config.getMaximumPoolSize();
+        int newSize = size;
+        if (maxWaitNanos > waitThresholdNanos || waiting > 0) {
+            newSize = size + step;
+        } else if (pool.getActiveConnections() * 2 < size) {
+            newSize = size - step;
+        }
+        newSize = Math.max(minSize, Math.min(maxSize, newSize));
+        if (newSize == size) {
+            return size;
+        }
+        int minIdle = Math.min(configuredMinIdle, newSize - 1);
+        if (newSize > size) {
+            config.setMaximumPoolSize(newSize);
+            config.setMinimumIdle(minIdle);
+            growCount.inc();
+        } else {
+            // lowered first, so that the minimum idle never exceeds the maximum size
+            config.setMinimumIdle(minIdle);
+            config.setMaximumPoolSize(newSize);
+            shrinkCount.inc();
+        }
+        LOG.debug("Resized connection pool from {} to {}, longest wait {} us, {} waiting", size, newSize,
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos), waiting);
+        return newSize;
+    }
+}
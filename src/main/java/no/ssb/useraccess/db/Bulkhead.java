@@ -0,0 +1,108 @@
+package no.ssb.useraccess.db;
+
+import io.helidon.config.Config;
+import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbStatements;
+import io.helidon.dbclient.jdbc.JdbcDbClientProviderBuilder;
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The database client of one class of traffic, with its own connection pool, its own threads for the blocking JDBC
+ * calls and its own schedulers, so that a saturated class cannot starve the others of any of them. The timeout
+ * scheduler only fires request timeouts, and background work such as batch dispatch, reloads and pool sizing runs on
+ * a separate scheduler so that it cannot delay a timeout. JDBC calls
+ * wait for a thread in a bounded queue, and calls beyond it fail at once with {@link BulkheadFullException} rather
+ * than queueing past any request timeout.
+ * <p>
+ * Metrics are prefixed by the bulkhead name, e.g. db: the pool metrics of {@link InstrumentedConnectionPool} as
+ * dbPool..., the gauges dbExecutorActiveThreads and dbExecutorQueueSize of the JDBC threads and the counter
+ * dbExecutorRejectedCount of the calls that did not fit in the queue.
+ */
+public class Bulkhead implements AutoCloseable {
+
+    private final String name;
+    private final InstrumentedConnectionPool connectionPool;
+    private final ThreadPoolExecutor executor;
+    private final DbClient dbClient;
+    private final ScheduledExecutorService timeoutService;
+    private final ScheduledExecutorService backgroundService;
+
+    /**
+     * @param poolConfig        as described by {@link InstrumentedConnectionPool#create(String, Config, Config)}.
+     * @param executorThreads   the number of threads that run JDBC calls.
+     * @param executorQueueSize the number of JDBC calls that may wait for a thread.
+     */
+    public static Bulkhead create(String name, Config connectionConfig, Config statementsConfig, Config poolConfig,
+                                  int executorThreads, int executorQueueSize) {
+        return new Bulkhead(name, InstrumentedConnectionPool.create(name + "Pool", connectionConfig, poolConfig),
+                DbStatements.create(statementsConfig), executorThreads, executorQueueSize);
+    }
+
+    Bulkhead(String name, InstrumentedConnectionPool connectionPool, DbStatements statements, int executorThreads, int executorQueueSize) {
+        this.name = name;
+        this.connectionPool = connectionPool;
+        Counter rejectedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter(name + "ExecutorRejectedCount");
+        this.executor = new ThreadPoolExecutor(executorThreads, executorThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(executorQueueSize), threadFactory(name + "-jdbc-"), (runnable, rejecting) -> {
+            rejectedCount.inc();
+            throw new BulkheadFullException(name);
+        });
+        MetricsUtil.gauge(name + "ExecutorActiveThreads", executor::getActiveCount);
+        MetricsUtil.gauge(name + "ExecutorQueueSize", () -> executor.getQueue().size());
+        this.dbClient = JdbcDbClientProviderBuilder.create()
+                .connectionPool(connectionPool)
+                .statements(statements)
+                .executorService(() -> executor)
+                .build();
+        this.timeoutService = Executors.newSingleThreadScheduledExecutor(threadFactory(name + "-timeout-"));
+        this.backgroundService = Executors.newSingleThreadScheduledExecutor(threadFactory(name + "-background-"));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InstrumentedConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public DbClient getDbClient() {
+        return dbClient;
+    }
+
+    public ScheduledExecutorService getTimeoutService() {
+        return timeoutService;
+    }
+
+    public ScheduledExecutorService getBackgroundService() {
+        return backgroundService;
+    }
+
+    @Override
+    public void close() {
+        timeoutService.shutdownNow();
+        backgroundService.shutdownNow();
+        executor.shutdownNow();
+        connectionPool.close();
+    }
+}
@@ -0,0 +1,26 @@
+package no.ssb.useraccess.db;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a JDBC call is submitted to a {@link Bulkhead} whose threads are busy and whose queue is full. The
+ * database is saturated, so the request should be retried later rather than counted as a failure of the service.
+ */
+public class BulkheadFullException extends RejectedExecutionException {
+
+    public BulkheadFullException(String bulkheadName) {
+        super(bulkheadName + " bulkhead is full");
+    }
+
+    /**
+     * @return whether t or one of its causes is a BulkheadFullException.
+     */
+    public static boolean causedBy(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkheadFullException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
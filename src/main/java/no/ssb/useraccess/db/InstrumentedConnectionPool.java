@@ -0,0 +1,136 @@
+package no.ssb.useraccess.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import io.helidon.config.Config;
+import io.helidon.dbclient.DbClientException;
+import io.helidon.dbclient.jdbc.ConnectionPool;
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.useraccess.util.MetricsUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A HikariCP connection pool for the DbClient that exports its state through the application metrics registry, with
+ * names prefixed by the pool name, e.g. dbPool: the gauges dbPoolActiveConnections, dbPoolIdleConnections,
+ * dbPoolTotalConnections, dbPoolMaxConnections and dbPoolPendingThreads, the histogram dbPoolAcquireMicros of the time
+ * taken to get a connection, including the wait for a free one, and the counter dbPoolTimeoutCount of requests that
+ * gave up waiting.
+ */
+public class InstrumentedConnectionPool implements ConnectionPool, AutoCloseable {
+
+    private final String name;
+    private final HikariDataSource dataSource;
+    private final String dbType;
+
+    private final Histogram acquireMicros;
+    private final Counter timeoutCount;
+
+    /**
+     * The longest acquire time since it was last taken, read by the {@link AdaptivePoolSizer}.
+     */
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    /**
+     * @param connectionConfig the url, username and password, as for the default DbClient pool.
+     * @param poolConfig       max-size, min-idle and connection-timeout-millis, defaulting to those of HikariCP.
+     */
+    public static InstrumentedConnectionPool create(Config connectionConfig, Config poolConfig) {
+        return create("dbPool", connectionConfig, poolConfig);
+    }
+
+    /**
+     * @param name the prefix of the metric names.
+     */
+    public static InstrumentedConnectionPool create(String name, Config connectionConfig, Config poolConfig) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(connectionConfig.get("url").asString().get());
+        connectionConfig.get("username").asString().ifPresent(hikariConfig::setUsername);
+        connectionConfig.get("password").asString().ifPresent(hikariConfig::setPassword);
+        poolConfig.get("max-size").asInt().ifPresent(hikariConfig::setMaximumPoolSize);
+        poolConfig.get("min-idle").asInt().ifPresent(hikariConfig::setMinimumIdle);
+        poolConfig.get("connection-timeout-millis").asLong().ifPresent(hikariConfig::setConnectionTimeout);
+        return new InstrumentedConnectionPool(name, hikariConfig);
+    }
+
+    public InstrumentedConnectionPool(HikariConfig hikariConfig) {
+        this("dbPool", hikariConfig);
+    }
+
+    public InstrumentedConnectionPool(String name, HikariConfig hikariConfig) {
+        this.name = name;
+        MetricRegistry registry = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+        this.acquireMicros = registry.histogram(name + "AcquireMicros");
+        this.timeoutCount = registry.counter(name + "TimeoutCount");
+        hikariConfig.setPoolName(name);
+        hikariConfig.setMetricsTrackerFactory((poolName, poolStats) -> {
+            MetricsUtil.gauge(name + "ActiveConnections", poolStats::getActiveConnections);
+            MetricsUtil.gauge(name + "IdleConnections", poolStats::getIdleConnections);
+            MetricsUtil.gauge(name + "TotalConnections", poolStats::getTotalConnections);
+            MetricsUtil.gauge(name + "MaxConnections", poolStats::getMaxConnections);
+            MetricsUtil.gauge(name + "PendingThreads", poolStats::getPendingThreads);
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    acquireMicros.update(elapsedAcquiredNanos / 1000);
+                    maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    timeoutCount.inc();
+                }
+            };
+        });
+        this.dataSource = new HikariDataSource(hikariConfig);
+        // e.g. postgresql for jdbc:postgresql://localhost/db, as the default DbClient pool reports it
+        String[] urlParts = hikariConfig.getJdbcUrl().split(":");
+        this.dbType = urlParts.length > 1 ? urlParts[1] : "jdbc";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Connection connection() {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new DbClientException("Failed to get a connection to " + dataSource.getJdbcUrl(), e);
+        }
+    }
+
+    @Override
+    public String dbType() {
+        return dbType;
+    }
+
+    HikariPoolMXBean pool() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    HikariConfigMXBean config() {
+        return dataSource.getHikariConfigMXBean();
+    }
+
+    /**
+     * @return the longest time a connection was waited for since the previous call.
+     */
+    long takeMaxAcquireNanos() {
+        return maxAcquireNanos.getAndSet(0);
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
@@ -4,37 +4,101 @@ package no.ssb.useraccess.group;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
 import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbExecute;
 import io.helidon.metrics.RegistryFactory;
 import no.ssb.dapla.auth.dataset.protobuf.Group;
 import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.permission.EffectivePermissions;
+import no.ssb.useraccess.util.EntityCache;
+import no.ssb.useraccess.util.MetricsUtil;
+import no.ssb.useraccess.util.ProtobufUtil;
+import no.ssb.useraccess.util.SqlUtil;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class GroupRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(GroupRepository.class);
 
+    static final String PRINCIPAL_TYPE = "group";
+
     private final DbClient client;
 
+    private final List<ChangeListener> changeListeners;
+
     private final Counter groupsCreatedOrUpdatedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("groupsCreatedOrUpdatedCount");
     private final Counter groupsDeletedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("groupsDeletedCount");
-    private final Counter groupsReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("groupsReadCount");
+    private final Counter groupsCacheHitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("groupsCacheHitCount");
+    private final Counter groupsDbReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("groupsDbReadCount");
+
+    private final EntityCache<Group> cache;
+    private final EffectivePermissions effectivePermissions;
 
     public GroupRepository(DbClient client) {
+        this(client, EntityCache.disabled());
+    }
+
+    /**
+     * @param cache parsed groups by groupId, written through on create or update and evicted on delete.
+     */
+    public GroupRepository(DbClient client, EntityCache<Group> cache) {
+        this(client, cache, new EffectivePermissions(client, false));
+    }
+
+    /**
+     * @param effectivePermissions maintained in the same transaction as each write.
+     */
+    public GroupRepository(DbClient client, EntityCache<Group> cache, EffectivePermissions effectivePermissions) {
+        this(client, cache, effectivePermissions, new CopyOnWriteArrayList<>());
+        if (cache.isEnabled()) {
+            MetricsUtil.gauge("groupsCacheSize", cache::size);
+        }
+    }
+
+    private GroupRepository(DbClient client, EntityCache<Group> cache, EffectivePermissions effectivePermissions, List<ChangeListener> changeListeners) {
         this.client = client;
+        this.cache = cache;
+        this.effectivePermissions = effectivePermissions;
+        this.changeListeners = changeListeners;
+    }
+
+    /**
+     * @return a repository that runs its statements on the given client and shares the cache and change listeners of
+     * this one, so that writes through either are seen by both.
+     */
+    public GroupRepository withClient(DbClient client) {
+        if (client == this.client) {
+            return this;
+        }
+        return new GroupRepository(client, cache, effectivePermissions.withClient(client), changeListeners);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
     }
 
     public Single<Group> getGroup(String groupId) {
-        return client.execute(exec -> exec.get("SELECT groupId, document::JSON FROM UserGroup WHERE groupId = ?", groupId)
+        Group cached = cache.get(groupId);
+        if (cached != null) {
+            groupsCacheHitCount.inc();
+            return Single.just(cached);
+        }
+        long version = cache.version();
+        return client.execute(exec -> exec.get("SELECT groupId, proto FROM UserGroup WHERE groupId = ?", groupId)
                 .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Group group = ProtobufJsonUtils.toPojo(jsonDoc, Group.class);
-                    groupsReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Group group = ProtobufUtil.parse(proto, Group.parser());
+                    groupsDbReadCount.inc();
+                    cache.putIfUnchanged(groupId, group, version);
                     return Single.just(group);
                 }).orElseGet(Single::empty))
         );
@@ -44,50 +108,125 @@ public class GroupRepository {
         if (groupIds == null || groupIds.isEmpty()) {
             return Multi.empty();
         }
-        String inIds = groupIds.stream()
-                .map(s -> "'" + s.replace("'", "''") + "'")
-                .collect(Collectors.joining(","));
-        return client.execute(exec -> exec.query("SELECT groupId, document::JSON FROM UserGroup WHERE groupId IN (" + inIds + ") ORDER BY groupId")
+        List<Group> cached = new ArrayList<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String groupId : new LinkedHashSet<>(groupIds)) {
+            Group group = cache.get(groupId);
+            if (group != null) {
+                cached.add(group);
+            } else {
+                missingIds.add(groupId);
+            }
+        }
+        groupsCacheHitCount.inc(cached.size());
+        if (missingIds.isEmpty()) {
+            cached.sort(Comparator.comparing(Group::getGroupId));
+            return Multi.create(cached);
+        }
+        long version = cache.version();
+        Object ids = missingIds.toArray(new String[0]);
+        Multi<Group> read = client.execute(exec -> exec.query("SELECT groupId, proto FROM UserGroup WHERE groupId = ANY(?) ORDER BY groupId", ids)
                 .map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Group group = ProtobufJsonUtils.toPojo(jsonDoc, Group.class);
-                    groupsReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Group group = ProtobufUtil.parse(proto, Group.parser());
+                    groupsDbReadCount.inc();
+                    cache.putIfUnchanged(group.getGroupId(), group, version);
                     return group;
                 })
         );
+        if (cached.isEmpty()) {
+            return read;
+        }
+        return read.collectList().flatMapIterable(groups -> {
+            groups.addAll(cached);
+            groups.sort(Comparator.comparing(Group::getGroupId));
+            return groups;
+        });
     }
 
     public Multi<Group> getAllGroups() {
-        return client.execute(exec -> exec.query("SELECT groupId, document::JSON FROM UserGroup ORDER BY groupId")
+        return client.execute(exec -> exec.query("SELECT groupId, proto FROM UserGroup ORDER BY groupId")
                 .map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Group group = ProtobufJsonUtils.toPojo(jsonDoc, Group.class);
-                    groupsReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Group group = ProtobufUtil.parse(proto, Group.parser());
+                    groupsDbReadCount.inc();
                     return group;
                 })
         );
     }
 
-    public Single<Long> createOrUpdateGroup(Group group) {
-        return client.execute(exec -> {
-                    String documentJson = ProtobufJsonUtils.toString(group);
-                    return exec.insert("INSERT INTO UserGroup (groupId, document) VALUES(?, ?::JSON) ON CONFLICT (groupId) DO UPDATE SET document = ?::JSON",
-                            group.getGroupId(), documentJson, documentJson)
-                            .peek(groupsCreatedOrUpdatedCount::inc);
-                }
+    /**
+     * Reads the stored JSON document of the group as is, for responses that need no parsing.
+     */
+    public Single<String> getGroupDocument(String groupId) {
+        return client.execute(exec -> exec.get("SELECT document::text FROM UserGroup WHERE groupId = ?", groupId)
+                .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
+                    groupsDbReadCount.inc();
+                    return Single.just(dbRow.column(1).as(String.class));
+                }).orElseGet(Single::empty))
         );
     }
 
+    /**
+     * Reads the stored JSON documents of all groups as is, sorted by groupId.
+     */
+    public Multi<String> getGroupDocuments() {
+        return client.execute(exec -> exec.query("SELECT document::text FROM UserGroup ORDER BY groupId")
+                .map(dbRow -> {
+                    groupsDbReadCount.inc();
+                    return dbRow.column(1).as(String.class);
+                })
+        );
+    }
+
+    public Single<Long> createOrUpdateGroup(Group group) {
+        String documentJson = ProtobufJsonUtils.toString(group);
+        byte[] proto = group.toByteArray();
+        return effectivePermissions.write(
+                exec -> exec.insert("INSERT INTO UserGroup (groupId, document, proto) VALUES(?, ?::JSON, ?) ON CONFLICT (groupId) DO UPDATE SET document = ?::JSON, proto = ?",
+                        group.getGroupId(), documentJson, proto, documentJson, proto)
+                        .flatMapSingle(count -> deleteNormalizedRows(exec, group.getGroupId())
+                                .flatMapSingle(deleted -> insertNormalizedRows(exec, group))
+                                .map(inserted -> count)),
+                exec -> effectivePermissions.groupUpdated(exec, group.getGroupId()))
+                .peek(groupsCreatedOrUpdatedCount::inc)
+                .peek(count -> cache.put(group.getGroupId(), group))
+                .peek(count -> changeListeners.forEach(listener -> listener.groupUpdated(group)));
+    }
+
     public Single<Long> deleteGroup(String groupId) {
-        return client.execute(exec -> exec.delete("DELETE FROM UserGroup WHERE groupId = ?",
-                groupId)
+        return effectivePermissions.write(
+                exec -> exec.delete("DELETE FROM UserGroup WHERE groupId = ?", groupId)
+                        .flatMapSingle(count -> deleteNormalizedRows(exec, groupId).map(deleted -> count)),
+                exec -> effectivePermissions.groupDeleted(exec, groupId))
                 .peek(groupsDeletedCount::inc)
-        );
+                .peek(count -> cache.remove(groupId))
+                .peek(count -> changeListeners.forEach(listener -> listener.groupDeleted(groupId)));
     }
 
     public Single<Long> deleteAllGroups() {
-        return client.execute(exec -> exec.delete("TRUNCATE TABLE UserGroup")
+        return effectivePermissions.write(
+                exec -> exec.delete("TRUNCATE TABLE UserGroup")
+                        .flatMapSingle(count -> exec.delete("DELETE FROM principal_role WHERE principal_type = ?", PRINCIPAL_TYPE)
+                                .map(deleted -> count)),
+                effectivePermissions::allGroupsDeleted)
                 .peek(groupsDeletedCount::inc)
-        );
+                .peek(count -> cache.clear())
+                .peek(count -> changeListeners.forEach(ChangeListener::allGroupsDeleted));
+    }
+
+    private static Single<Long> deleteNormalizedRows(DbExecute exec, String groupId) {
+        return exec.delete("DELETE FROM principal_role WHERE principal_type = ? AND principal_id = ?", PRINCIPAL_TYPE, groupId);
+    }
+
+    /**
+     * Mirrors the roles of the document in principal_role. Memberships are part of the user documents.
+     */
+    private static Single<Long> insertNormalizedRows(DbExecute exec, Group group) {
+        List<List<Object>> roles = new ArrayList<>();
+        for (String roleId : new LinkedHashSet<>(group.getRolesList())) {
+            roles.add(List.of(PRINCIPAL_TYPE, group.getGroupId(), roleId));
+        }
+        return SqlUtil.insertRows(exec, "principal_role", List.of("principal_type", "principal_id", "roleId"), List.of("text", "text", "text"), roles);
     }
 }
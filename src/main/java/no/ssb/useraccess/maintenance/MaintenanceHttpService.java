@@ -8,6 +8,7 @@ import io.helidon.webserver.ServerResponse;
 import io.helidon.webserver.Service;
 import io.opentracing.Span;
 import no.ssb.helidon.application.Tracing;
+import no.ssb.useraccess.db.BulkheadFullException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,7 @@ public class MaintenanceHttpService implements Service {
     @Override
     public void update(Routing.Rules rules) {
         rules.delete("/all", this::doDelete);
+        rules.post("/effective-permissions", this::doRebuildEffectivePermissions);
     }
 
     private void doDelete(ServerRequest req, ServerResponse res) {
@@ -48,7 +50,7 @@ public class MaintenanceHttpService implements Service {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                         } finally {
                             span.finish();
                         }
@@ -65,4 +67,35 @@ public class MaintenanceHttpService implements Service {
             }
         }
     }
+
+    private void doRebuildEffectivePermissions(ServerRequest req, ServerResponse res) {
+        Span span = spanFromHttp(req, "doRebuildEffectivePermissions");
+        try {
+            repository.rebuildEffectivePermissions()
+                    .peek(rows -> {
+                        Tracing.restoreTracingContext(req.tracer(), span);
+                        res.send("{\"rows\":" + rows + "}");
+                    })
+                    .peek(rows -> span.finish())
+                    .onError(t -> {
+                        try {
+                            Tracing.restoreTracingContext(req.tracer(), span);
+                            logError(span, t);
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                        } finally {
+                            span.finish();
+                        }
+                    })
+                    .subscribe(rows -> {
+                    });
+        } catch (RuntimeException | Error e) {
+            try {
+                logError(span, e);
+                LOG.error("unexpected error", e);
+                throw e;
+            } finally {
+                span.finish();
+            }
+        }
+    }
 }
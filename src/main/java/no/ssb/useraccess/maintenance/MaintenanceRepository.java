@@ -1,7 +1,9 @@
 package no.ssb.useraccess.maintenance;
 
 import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
 import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.permission.EffectivePermissions;
 import no.ssb.useraccess.role.RoleRepository;
 import no.ssb.useraccess.user.UserRepository;
 
@@ -10,14 +12,24 @@ public class MaintenanceRepository {
     private final RoleRepository roleRepository;
     private final GroupRepository groupRepository;
     private final UserRepository userRepository;
+    private final EffectivePermissions effectivePermissions;
 
-    public MaintenanceRepository(RoleRepository roleRepository, GroupRepository groupRepository, UserRepository userRepository) {
+    public MaintenanceRepository(RoleRepository roleRepository, GroupRepository groupRepository, UserRepository userRepository,
+                                 EffectivePermissions effectivePermissions) {
         this.roleRepository = roleRepository;
         this.groupRepository = groupRepository;
         this.userRepository = userRepository;
+        this.effectivePermissions = effectivePermissions;
     }
 
     public Multi<Long> deleteAll() {
         return Multi.concat(roleRepository.deleteAllRoles(), groupRepository.deleteAllGroups(), userRepository.deleteAllUsers());
     }
+
+    /**
+     * @return the number of rows in the rebuilt effective_permission table.
+     */
+    public Single<Long> rebuildEffectivePermissions() {
+        return effectivePermissions.rebuild();
+    }
 }
@@ -0,0 +1,114 @@
+package no.ssb.useraccess.permission;
+
+import io.helidon.common.reactive.Single;
+import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbExecute;
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.util.function.Function;
+
+/**
+ * Maintains the effective_permission table, a materialized copy of the effective_permission_source view with one
+ * (userId, roleId, via_group) row per role a user is granted, directly or through an existing group. The rows of the
+ * written user or group are replaced in the same transaction as the write. The rows do not depend on which roles
+ * exist, so role writes leave the table alone and readers join with the role table.
+ * <p>
+ * When disabled, writes leave the table alone until it is rebuilt.
+ */
+public class EffectivePermissions {
+
+    private static final String DIRECT = "";
+
+    /**
+     * Serializes maintained writes, so that each transaction reads the view after concurrent writes have committed.
+     */
+    private static final long MAINTENANCE_LOCK = 0x55A0_0016L;
+
+    private final DbClient client;
+    private final boolean enabled;
+
+    private final Counter rebuildCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("effectivePermissionsRebuildCount");
+
+    /**
+     * @param enabled whether writes maintain the table. It can be rebuilt either way.
+     */
+    public EffectivePermissions(DbClient client, boolean enabled) {
+        this.client = client;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the same maintenance run through client, e.g. for a repository view reading through another bulkhead,
+     * so that its writes use the connections of that view.
+     */
+    public EffectivePermissions withClient(DbClient client) {
+        if (client == this.client) {
+            return this;
+        }
+        return new EffectivePermissions(client, enabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs write in a transaction, followed by maintain in the same transaction when enabled. Maintained writes are
+     * serialized by a transaction-level advisory lock taken before write, as a group write must see a concurrent write
+     * of a member and vice versa. The lock is always taken first, so it cannot deadlock with the table locks of the
+     * writes.
+     *
+     * @return the result of write.
+     */
+    public Single<Long> write(Function<DbExecute, Single<Long>> write, Function<DbExecute, Single<Long>> maintain) {
+        if (!enabled) {
+            return client.inTransaction(tx -> write.apply(tx));
+        }
+        return client.inTransaction(tx -> tx.get("SELECT pg_advisory_xact_lock(?)", MAINTENANCE_LOCK)
+                .flatMapSingle(locked -> write.apply(tx))
+                .flatMapSingle(count -> maintain.apply(tx).map(rows -> count)));
+    }
+
+    public Single<Long> userUpdated(DbExecute exec, String userId) {
+        return exec.delete("DELETE FROM effective_permission WHERE userId = ?", userId)
+                .flatMapSingle(deleted -> exec.insert("INSERT INTO effective_permission (userId, roleId, via_group)"
+                        + " SELECT userId, roleId, via_group FROM effective_permission_source WHERE userId = ?", userId));
+    }
+
+    public Single<Long> userDeleted(DbExecute exec, String userId) {
+        return exec.delete("DELETE FROM effective_permission WHERE userId = ?", userId);
+    }
+
+    public Single<Long> allUsersDeleted(DbExecute exec) {
+        return exec.delete("TRUNCATE TABLE effective_permission");
+    }
+
+    public Single<Long> groupUpdated(DbExecute exec, String groupId) {
+        return exec.delete("DELETE FROM effective_permission WHERE via_group = ?", groupId)
+                .flatMapSingle(deleted -> exec.insert("INSERT INTO effective_permission (userId, roleId, via_group)"
+                        + " SELECT userId, roleId, via_group FROM effective_permission_source WHERE via_group = ?", groupId));
+    }
+
+    public Single<Long> groupDeleted(DbExecute exec, String groupId) {
+        return exec.delete("DELETE FROM effective_permission WHERE via_group = ?", groupId);
+    }
+
+    public Single<Long> allGroupsDeleted(DbExecute exec) {
+        return exec.delete("DELETE FROM effective_permission WHERE via_group <> ?", DIRECT);
+    }
+
+    /**
+     * Replaces all rows with the current content of the view, e.g. after writes were made while disabled.
+     *
+     * @return the number of rows.
+     */
+    public Single<Long> rebuild() {
+        return client.inTransaction(tx -> tx.get("SELECT pg_advisory_xact_lock(?)", MAINTENANCE_LOCK)
+                .flatMapSingle(locked -> tx.delete("TRUNCATE TABLE effective_permission"))
+                .flatMapSingle(deleted -> tx.insert("INSERT INTO effective_permission (userId, roleId, via_group)"
+                        + " SELECT userId, roleId, via_group FROM effective_permission_source"))
+                .peek(rows -> rebuildCount.inc()));
+    }
+}
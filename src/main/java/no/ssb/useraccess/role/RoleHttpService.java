@@ -1,11 +1,8 @@
 package no.ssb.useraccess.role;
 
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.helidon.common.http.Http;
+import io.helidon.common.http.MediaType;
 import io.helidon.webserver.Handler;
 import io.helidon.webserver.Routing;
 import io.helidon.webserver.ServerRequest;
@@ -14,12 +11,13 @@ import io.helidon.webserver.Service;
 import io.opentracing.Span;
 import no.ssb.dapla.auth.dataset.protobuf.Role;
 import no.ssb.helidon.application.Tracing;
-import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import no.ssb.useraccess.db.BulkheadFullException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static no.ssb.helidon.application.Tracing.logError;
 import static no.ssb.helidon.application.Tracing.spanFromHttp;
@@ -38,8 +36,6 @@ public class RoleHttpService implements Service {
         this.repository = repository;
     }
 
-    final ObjectMapper mapper = new ObjectMapper();
-
     @Override
     public void update(Routing.Rules rules) {
         rules.get("/{roleId}", this::doGet);
@@ -53,22 +49,23 @@ public class RoleHttpService implements Service {
         try {
             String roleId = req.path().param("roleId");
             span.setTag("roleId", roleId);
-            repository.getRole(roleId)
+            repository.getRoleDocument(roleId)
                     .timeout(30, TimeUnit.SECONDS, timeoutService)
-                    .thenAccept(role -> {
+                    .thenAccept(document -> {
                         Tracing.restoreTracingContext(req.tracer(), span);
-                        if (role == null) {
+                        if (document == null) {
                             res.status(Http.Status.NOT_FOUND_404).send();
                         } else {
-                            res.send(role);
-                            traceOutputMessage(span, role);
+                            res.headers().contentType(MediaType.APPLICATION_JSON);
+                            res.send(document);
+                            traceOutputMessage(span, document);
                         }
                     }).thenRun(span::finish)
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -88,33 +85,24 @@ public class RoleHttpService implements Service {
     private void doGetAll(ServerRequest req, ServerResponse res) {
         Span span = spanFromHttp(req, "doGetAll");
         try {
-            repository.getRoleList(null)
+            repository.getRoleDocuments()
                     .timeout(30, TimeUnit.SECONDS, timeoutService)
                     .collectList()
-                    .peek(roles -> {
+                    .peek(documents -> {
                         Tracing.restoreTracingContext(req.tracer(), span);
-                        if (roles == null) {
+                        if (documents == null) {
                             res.status(Http.Status.NOT_FOUND_404).send();
                         } else {
-                            ObjectNode returnObject = mapper.createObjectNode();
-                            ArrayNode roleArray = returnObject.putArray("roles");
-                            for (Role role : roles) {
-                                try {
-                                    roleArray.add(mapper.readTree(ProtobufJsonUtils.toString(role)));
-                                } catch (JsonProcessingException e) {
-                                    logError(span, e);
-                                    LOG.error("unexpected error reading role-tree", e);
-                                }
-                            }
-                            res.send(returnObject.toString());
-                            traceOutputMessage(span, returnObject.asText());
+                            String body = documents.stream().collect(Collectors.joining(",", "{\"roles\":[", "]}"));
+                            res.send(body);
+                            span.setTag("count", documents.size());
                         }
                     }).thenRun(span::finish)
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -154,7 +142,7 @@ public class RoleHttpService implements Service {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -187,7 +175,7 @@ public class RoleHttpService implements Service {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
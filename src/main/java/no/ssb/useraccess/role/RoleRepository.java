@@ -4,16 +4,25 @@ package no.ssb.useraccess.role;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
 import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbExecute;
 import io.helidon.metrics.RegistryFactory;
 import no.ssb.dapla.auth.dataset.protobuf.Role;
 import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.util.EntityCache;
+import no.ssb.useraccess.util.MetricsUtil;
+import no.ssb.useraccess.util.ProtobufUtil;
+import no.ssb.useraccess.util.SqlUtil;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class RoleRepository {
 
@@ -21,20 +30,63 @@ public class RoleRepository {
 
     private final DbClient client;
 
+    private final List<ChangeListener> changeListeners;
+
     private final Counter rolesCreatedOrUpdatedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("rolesCreatedOrUpdatedCount");
     private final Counter rolesDeletedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("rolesDeletedCount");
-    private final Counter rolesReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("rolesReadCount");
+    private final Counter rolesCacheHitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("rolesCacheHitCount");
+    private final Counter rolesDbReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("rolesDbReadCount");
+
+    private final EntityCache<Role> cache;
 
     public RoleRepository(DbClient client) {
+        this(client, EntityCache.disabled());
+    }
+
+    /**
+     * @param cache parsed roles by roleId, written through on create or update and evicted on delete.
+     */
+    public RoleRepository(DbClient client, EntityCache<Role> cache) {
+        this(client, cache, new CopyOnWriteArrayList<>());
+        if (cache.isEnabled()) {
+            MetricsUtil.gauge("rolesCacheSize", cache::size);
+        }
+    }
+
+    private RoleRepository(DbClient client, EntityCache<Role> cache, List<ChangeListener> changeListeners) {
         this.client = client;
+        this.cache = cache;
+        this.changeListeners = changeListeners;
+    }
+
+    /**
+     * @return a repository that runs its statements on the given client and shares the cache and change listeners of
+     * this one, so that writes through either are seen by both.
+     */
+    public RoleRepository withClient(DbClient client) {
+        if (client == this.client) {
+            return this;
+        }
+        return new RoleRepository(client, cache, changeListeners);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
     }
 
     public Single<Role> getRole(String roleId) {
-        return client.execute(exec -> exec.get("SELECT roleId, document::JSON FROM role WHERE roleId = ?", roleId)
+        Role cached = cache.get(roleId);
+        if (cached != null) {
+            rolesCacheHitCount.inc();
+            return Single.just(cached);
+        }
+        long version = cache.version();
+        return client.execute(exec -> exec.get("SELECT roleId, proto FROM role WHERE roleId = ?", roleId)
                 .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Role role = ProtobufJsonUtils.toPojo(jsonDoc, Role.class);
-                    rolesReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Role role = ProtobufUtil.parse(proto, Role.parser());
+                    rolesDbReadCount.inc();
+                    cache.putIfUnchanged(roleId, role, version);
                     return Single.just(role);
                 }).orElseGet(Single::empty))
         );
@@ -44,58 +96,153 @@ public class RoleRepository {
         if (roleIds == null || roleIds.isEmpty()) {
             return Multi.empty();
         }
-        String inIds = roleIds.stream()
-                .map(s -> "'" + s.replace("'", "''") + "'")
-                .collect(Collectors.joining(","));
-        return client.execute(exec -> exec.query("SELECT roleId, document::JSON FROM role WHERE roleId IN (" + inIds + ") ORDER BY roleId")
+        List<Role> cached = new ArrayList<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String roleId : new LinkedHashSet<>(roleIds)) {
+            Role role = cache.get(roleId);
+            if (role != null) {
+                cached.add(role);
+            } else {
+                missingIds.add(roleId);
+            }
+        }
+        rolesCacheHitCount.inc(cached.size());
+        if (missingIds.isEmpty()) {
+            cached.sort(Comparator.comparing(Role::getRoleId));
+            return Multi.create(cached);
+        }
+        long version = cache.version();
+        // one statement text for any number of ids, so that the prepared statement and its plan are reused
+        Object ids = missingIds.toArray(new String[0]);
+        Multi<Role> read = client.execute(exec -> exec.query("SELECT roleId, proto FROM role WHERE roleId = ANY(?) ORDER BY roleId", ids)
                 .map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Role role = ProtobufJsonUtils.toPojo(jsonDoc, Role.class);
-                    rolesReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Role role = ProtobufUtil.parse(proto, Role.parser());
+                    rolesDbReadCount.inc();
+                    cache.putIfUnchanged(role.getRoleId(), role, version);
                     return role;
                 })
         );
+        if (cached.isEmpty()) {
+            return read;
+        }
+        return read.collectList().flatMapIterable(roles -> {
+            roles.addAll(cached);
+            roles.sort(Comparator.comparing(Role::getRoleId));
+            return roles;
+        });
     }
 
     public Multi<Role> getRoleList(String roleIdPart) {
-        StringBuilder query = new StringBuilder("SELECT roleId, document::JSON FROM role");
+        StringBuilder query = new StringBuilder("SELECT roleId, proto FROM role");
         if (roleIdPart != null && roleIdPart.length() > 0) {
             query.append(" WHERE roleId LIKE '%").append(roleIdPart.replace("'", "''")).append("%'");
         }
         query.append(" ORDER BY roleId");
         return client.execute(exec -> exec.query(query.toString())
                 .map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    Role role = ProtobufJsonUtils.toPojo(jsonDoc, Role.class);
-                    rolesReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Role role = ProtobufUtil.parse(proto, Role.parser());
+                    rolesDbReadCount.inc();
                     return role;
                 })
         );
     }
 
-    public Single<Long> createOrUpdateRole(Role role) {
-        return client.execute(exec -> {
-                    String roleId = role.getRoleId();
-                    String documentJson = ProtobufJsonUtils.toString(role);
-                    return exec.createInsert("INSERT INTO role (roleId, document) VALUES(?, ?::JSON) ON CONFLICT (roleId) DO UPDATE SET document = ?::JSON")
-                            .addParam(roleId)
-                            .addParam(documentJson)
-                            .addParam(documentJson)
-                            .execute()
-                            .peek(rolesCreatedOrUpdatedCount::inc);
-                }
+    /**
+     * Reads the stored JSON document of the role as is, for responses that need no parsing.
+     */
+    public Single<String> getRoleDocument(String roleId) {
+        return client.execute(exec -> exec.get("SELECT document::text FROM role WHERE roleId = ?", roleId)
+                .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
+                    rolesDbReadCount.inc();
+                    return Single.just(dbRow.column(1).as(String.class));
+                }).orElseGet(Single::empty))
         );
     }
 
+    /**
+     * Reads the stored JSON documents of all roles as is, sorted by roleId.
+     */
+    public Multi<String> getRoleDocuments() {
+        return client.execute(exec -> exec.query("SELECT document::text FROM role ORDER BY roleId")
+                .map(dbRow -> {
+                    rolesDbReadCount.inc();
+                    return dbRow.column(1).as(String.class);
+                })
+        );
+    }
+
+    /**
+     * Reads the roles with an include that is a prefix of the path, including roles without includes. Excludes are
+     * not checked. Looks up each prefix of the path in the role_path index instead of reading every role.
+     */
+    public Multi<Role> getRolesMatchingPath(String path) {
+        String[] prefixes = new String[path.length() + 1];
+        for (int end = 0; end <= path.length(); end++) {
+            prefixes[end] = path.substring(0, end);
+        }
+        return client.execute(exec -> exec.query("SELECT roleId, proto FROM role WHERE roleId IN"
+                + " (SELECT roleId FROM role_path WHERE NOT exclude AND path = ANY(?)) ORDER BY roleId", (Object) prefixes)
+                .map(dbRow -> {
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    Role role = ProtobufUtil.parse(proto, Role.parser());
+                    rolesDbReadCount.inc();
+                    return role;
+                })
+        );
+    }
+
+    public Single<Long> createOrUpdateRole(Role role) {
+        String roleId = role.getRoleId();
+        String documentJson = ProtobufJsonUtils.toString(role);
+        byte[] proto = role.toByteArray();
+        return client.inTransaction(exec -> exec.createInsert("INSERT INTO role (roleId, document, proto) VALUES(?, ?::JSON, ?) ON CONFLICT (roleId) DO UPDATE SET document = ?::JSON, proto = ?")
+                .addParam(roleId)
+                .addParam(documentJson)
+                .addParam(proto)
+                .addParam(documentJson)
+                .addParam(proto)
+                .execute()
+                .flatMapSingle(count -> exec.delete("DELETE FROM role_path WHERE roleId = ?", roleId)
+                        .flatMapSingle(deleted -> insertNormalizedRows(exec, role))
+                        .map(inserted -> count)))
+                .peek(rolesCreatedOrUpdatedCount::inc)
+                .peek(count -> cache.put(role.getRoleId(), role))
+                .peek(count -> changeListeners.forEach(listener -> listener.roleUpdated(role)));
+    }
+
     public Single<Long> deleteRole(String roleId) {
-        return client.execute(exec -> exec.delete("DELETE FROM role WHERE roleId = ?", roleId)
+        return client.inTransaction(exec -> exec.delete("DELETE FROM role WHERE roleId = ?", roleId)
+                .flatMapSingle(count -> exec.delete("DELETE FROM role_path WHERE roleId = ?", roleId).map(deleted -> count)))
                 .peek(rolesDeletedCount::inc)
-        );
+                .peek(count -> cache.remove(roleId))
+                .peek(count -> changeListeners.forEach(listener -> listener.roleDeleted(roleId)));
     }
 
     public Single<Long> deleteAllRoles() {
-        return client.execute(exec -> exec.delete("TRUNCATE TABLE role")
+        return client.inTransaction(exec -> exec.delete("TRUNCATE TABLE role")
+                .flatMapSingle(count -> exec.delete("TRUNCATE TABLE role_path").map(deleted -> count)))
                 .peek(rolesDeletedCount::inc)
-        );
+                .peek(count -> cache.clear())
+                .peek(count -> changeListeners.forEach(ChangeListener::allRolesDeleted));
+    }
+
+    /**
+     * Mirrors the path includes and excludes of the document in role_path. A role without includes gets the empty
+     * include, which likewise matches every path.
+     */
+    private static Single<Long> insertNormalizedRows(DbExecute exec, Role role) {
+        List<List<Object>> paths = new ArrayList<>();
+        for (String include : new LinkedHashSet<>(role.getPaths().getIncludesList())) {
+            paths.add(List.of(role.getRoleId(), false, include));
+        }
+        if (paths.isEmpty()) {
+            paths.add(List.of(role.getRoleId(), false, ""));
+        }
+        for (String exclude : new LinkedHashSet<>(role.getPaths().getExcludesList())) {
+            paths.add(List.of(role.getRoleId(), true, exclude));
+        }
+        return SqlUtil.insertRows(exec, "role_path", List.of("roleId", "exclude", "path"), List.of("text", "boolean", "text"), paths);
     }
 }
@@ -1,10 +1,7 @@
 package no.ssb.useraccess.user;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.helidon.common.http.Http;
+import io.helidon.common.http.MediaType;
 import io.helidon.webserver.Handler;
 import io.helidon.webserver.Routing;
 import io.helidon.webserver.ServerRequest;
@@ -13,12 +10,13 @@ import io.helidon.webserver.Service;
 import io.opentracing.Span;
 import no.ssb.dapla.auth.dataset.protobuf.User;
 import no.ssb.helidon.application.Tracing;
-import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import no.ssb.useraccess.db.BulkheadFullException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static no.ssb.helidon.application.Tracing.logError;
 import static no.ssb.helidon.application.Tracing.spanFromHttp;
@@ -37,8 +35,6 @@ public class UserHttpService implements Service {
         this.repository = repository;
     }
 
-    final ObjectMapper mapper = new ObjectMapper();
-
     @Override
     public void update(Routing.Rules rules) {
         rules.get("/", this::doGetList);
@@ -52,19 +48,20 @@ public class UserHttpService implements Service {
         try {
             String userId = req.path().param("userId");
             span.setTag("userId", userId);
-            repository.getUser(userId)
-                    .thenAccept(user -> {
+            repository.getUserDocument(userId)
+                    .thenAccept(document -> {
                         Tracing.restoreTracingContext(req.tracer(), span);
-                        if (user == null) {
+                        if (document == null) {
                             res.status(Http.Status.NOT_FOUND_404).send();
                         } else {
-                            res.send(user);
+                            res.headers().contentType(MediaType.APPLICATION_JSON);
+                            res.send(document);
                         }
                     }).thenRun(span::finish)
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -84,33 +81,24 @@ public class UserHttpService implements Service {
     private void doGetList(ServerRequest req, ServerResponse res) {
         Span span = spanFromHttp(req, "doGetList");
         try {
-            repository.getUserList(null)
+            repository.getUserDocuments()
                     .timeout(30, TimeUnit.SECONDS, timeoutService)
                     .collectList()
-                    .peek(users -> {
+                    .peek(documents -> {
                         Tracing.restoreTracingContext(req.tracer(), span);
-                        if (users == null) {
+                        if (documents == null) {
                             res.status(Http.Status.NOT_FOUND_404).send();
                         } else {
-                            ObjectNode returnObject = mapper.createObjectNode();
-                            ArrayNode userArray = returnObject.putArray("users");
-                            for (User user : users) {
-                                try {
-                                    userArray.add(mapper.readTree(ProtobufJsonUtils.toString(user)));
-                                } catch (JsonProcessingException e) {
-                                    logError(span, e);
-                                    LOG.error("unexpected error reading user-tree", e);
-                                }
-                            }
-                            res.send(returnObject.toString());
-                            traceOutputMessage(span, returnObject.asText());
+                            String body = documents.stream().collect(Collectors.joining(",", "{\"users\":[", "]}"));
+                            res.send(body);
+                            span.setTag("count", documents.size());
                         }
                     }).thenRun(span::finish)
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
                             logError(span, t);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -147,7 +135,7 @@ public class UserHttpService implements Service {
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
@@ -178,7 +166,7 @@ public class UserHttpService implements Service {
                     .exceptionally(t -> {
                         try {
                             Tracing.restoreTracingContext(req.tracer(), span);
-                            res.status(Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
+                            res.status(BulkheadFullException.causedBy(t) ? Http.Status.SERVICE_UNAVAILABLE_503 : Http.Status.INTERNAL_SERVER_ERROR_500).send(t.getMessage());
                             return null;
                         } finally {
                             span.finish();
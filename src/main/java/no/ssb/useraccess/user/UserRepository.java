@@ -4,75 +4,200 @@ package no.ssb.useraccess.user;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
 import io.helidon.dbclient.DbClient;
+import io.helidon.dbclient.DbExecute;
 import io.helidon.metrics.RegistryFactory;
 import no.ssb.dapla.auth.dataset.protobuf.User;
 import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import no.ssb.useraccess.change.ChangeListener;
+import no.ssb.useraccess.permission.EffectivePermissions;
+import no.ssb.useraccess.util.EntityCache;
+import no.ssb.useraccess.util.MetricsUtil;
+import no.ssb.useraccess.util.ProtobufUtil;
+import no.ssb.useraccess.util.SqlUtil;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class UserRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(UserRepository.class);
 
+    static final String PRINCIPAL_TYPE = "user";
+
     private final DbClient client;
 
+    private final List<ChangeListener> changeListeners;
+
     private final Counter usersCreatedOrUpdatedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("usersCreatedOrUpdatedCount");
     private final Counter usersDeletedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("usersDeletedCount");
-    private final Counter usersReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("usersReadCount");
+    private final Counter usersCacheHitCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("usersCacheHitCount");
+    private final Counter usersDbReadCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("usersDbReadCount");
+
+    private final EntityCache<User> cache;
+    private final EffectivePermissions effectivePermissions;
 
     public UserRepository(DbClient client) {
+        this(client, EntityCache.disabled());
+    }
+
+    /**
+     * @param cache parsed users by userId, written through on create or update and evicted on delete.
+     */
+    public UserRepository(DbClient client, EntityCache<User> cache) {
+        this(client, cache, new EffectivePermissions(client, false));
+    }
+
+    /**
+     * @param effectivePermissions maintained in the same transaction as each write.
+     */
+    public UserRepository(DbClient client, EntityCache<User> cache, EffectivePermissions effectivePermissions) {
+        this(client, cache, effectivePermissions, new CopyOnWriteArrayList<>());
+        if (cache.isEnabled()) {
+            MetricsUtil.gauge("usersCacheSize", cache::size);
+        }
+    }
+
+    private UserRepository(DbClient client, EntityCache<User> cache, EffectivePermissions effectivePermissions, List<ChangeListener> changeListeners) {
         this.client = client;
+        this.cache = cache;
+        this.effectivePermissions = effectivePermissions;
+        this.changeListeners = changeListeners;
+    }
+
+    /**
+     * @return a repository that runs its statements on the given client and shares the cache and change listeners of
+     * this one, so that writes through either are seen by both.
+     */
+    public UserRepository withClient(DbClient client) {
+        if (client == this.client) {
+            return this;
+        }
+        return new UserRepository(client, cache, effectivePermissions.withClient(client), changeListeners);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
     }
 
     public Single<User> getUser(String userId) {
-        return client.execute(exec -> exec.get("SELECT userId, document::JSON FROM user_permission WHERE userId = ?", userId)
+        User cached = cache.get(userId);
+        if (cached != null) {
+            usersCacheHitCount.inc();
+            return Single.just(cached);
+        }
+        long version = cache.version();
+        return client.execute(exec -> exec.get("SELECT userId, proto FROM user_permission WHERE userId = ?", userId)
                 .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    User user = ProtobufJsonUtils.toPojo(jsonDoc, User.class);
-                    usersReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    User user = ProtobufUtil.parse(proto, User.parser());
+                    usersDbReadCount.inc();
+                    cache.putIfUnchanged(userId, user, version);
                     return Single.just(user);
                 }).orElseGet(Single::empty))
         );
     }
 
     public Multi<User> getUserList(String userIdPart) {
-        StringBuilder query = new StringBuilder("SELECT userId, document::JSON FROM user_permission");
+        StringBuilder query = new StringBuilder("SELECT userId, proto FROM user_permission");
         if (userIdPart != null && userIdPart.length() > 0) {
             query.append(" WHERE userId LIKE '%").append(userIdPart.replace("'", "''")).append("%'");
         }
         query.append(" ORDER BY userId");
         return client.execute(exec -> exec.query(query.toString())
                 .map(dbRow -> {
-                    String jsonDoc = dbRow.column(2).as(String.class);
-                    User user = ProtobufJsonUtils.toPojo(jsonDoc, User.class);
-                    usersReadCount.inc();
+                    byte[] proto = dbRow.column(2).as(byte[].class);
+                    User user = ProtobufUtil.parse(proto, User.parser());
+                    usersDbReadCount.inc();
                     return user;
                 })
         );
     }
 
-    public Single<Long> createOrUpdateUser(User user) {
-        return client.execute(exec -> {
-            String documentJson = ProtobufJsonUtils.toString(user);
-            return exec.insert("INSERT INTO user_permission (userId, document) VALUES(?, ?::JSON) ON CONFLICT (userId) DO UPDATE SET document = ?::JSON",
-                    user.getUserId(), documentJson, documentJson)
-                    .peek(usersCreatedOrUpdatedCount::inc);
-            }
+    /**
+     * Reads the stored JSON document of the user as is, for responses that need no parsing.
+     */
+    public Single<String> getUserDocument(String userId) {
+        return client.execute(exec -> exec.get("SELECT document::text FROM user_permission WHERE userId = ?", userId)
+                .flatMapSingle(optDbRow -> optDbRow.map(dbRow -> {
+                    usersDbReadCount.inc();
+                    return Single.just(dbRow.column(1).as(String.class));
+                }).orElseGet(Single::empty))
         );
     }
 
+    /**
+     * Reads the stored JSON documents of all users as is, sorted by userId.
+     */
+    public Multi<String> getUserDocuments() {
+        return client.execute(exec -> exec.query("SELECT document::text FROM user_permission ORDER BY userId")
+                .map(dbRow -> {
+                    usersDbReadCount.inc();
+                    return dbRow.column(1).as(String.class);
+                })
+        );
+    }
+
+    public Single<Long> createOrUpdateUser(User user) {
+        String documentJson = ProtobufJsonUtils.toString(user);
+        byte[] proto = user.toByteArray();
+        return effectivePermissions.write(
+                exec -> exec.insert("INSERT INTO user_permission (userId, document, proto) VALUES(?, ?::JSON, ?) ON CONFLICT (userId) DO UPDATE SET document = ?::JSON, proto = ?",
+                        user.getUserId(), documentJson, proto, documentJson, proto)
+                        .flatMapSingle(count -> deleteNormalizedRows(exec, user.getUserId())
+                                .flatMapSingle(deleted -> insertNormalizedRows(exec, user))
+                                .map(inserted -> count)),
+                exec -> effectivePermissions.userUpdated(exec, user.getUserId()))
+                .peek(usersCreatedOrUpdatedCount::inc)
+                .peek(count -> cache.put(user.getUserId(), user))
+                .peek(count -> changeListeners.forEach(listener -> listener.userUpdated(user)));
+    }
+
     public Single<Long> deleteUser(String userId) {
-        return client.execute(exec -> exec.delete("DELETE FROM user_permission WHERE userId = ?",
-                userId)
+        return effectivePermissions.write(
+                exec -> exec.delete("DELETE FROM user_permission WHERE userId = ?", userId)
+                        .flatMapSingle(count -> deleteNormalizedRows(exec, userId).map(deleted -> count)),
+                exec -> effectivePermissions.userDeleted(exec, userId))
                 .peek(usersDeletedCount::inc)
-        );
+                .peek(count -> cache.remove(userId))
+                .peek(count -> changeListeners.forEach(listener -> listener.userDeleted(userId)));
     }
 
     public Single<Long> deleteAllUsers() {
-        return client.execute(exec -> exec.delete("TRUNCATE TABLE user_permission")
+        return effectivePermissions.write(
+                exec -> exec.delete("TRUNCATE TABLE user_permission")
+                        .flatMapSingle(count -> exec.delete("TRUNCATE TABLE user_group_membership")
+                                .flatMapSingle(deleted -> exec.delete("DELETE FROM principal_role WHERE principal_type = ?", PRINCIPAL_TYPE))
+                                .map(deleted -> count)),
+                effectivePermissions::allUsersDeleted)
                 .peek(usersDeletedCount::inc)
-        );
+                .peek(count -> cache.clear())
+                .peek(count -> changeListeners.forEach(ChangeListener::allUsersDeleted));
+    }
+
+    private static Single<Long> deleteNormalizedRows(DbExecute exec, String userId) {
+        return exec.delete("DELETE FROM user_group_membership WHERE userId = ?", userId)
+                .flatMapSingle(deleted -> exec.delete("DELETE FROM principal_role WHERE principal_type = ? AND principal_id = ?", PRINCIPAL_TYPE, userId));
+    }
+
+    /**
+     * Mirrors the groups and roles of the document in user_group_membership and principal_role.
+     */
+    private static Single<Long> insertNormalizedRows(DbExecute exec, User user) {
+        List<List<Object>> memberships = new ArrayList<>();
+        for (String groupId : new LinkedHashSet<>(user.getGroupsList())) {
+            memberships.add(List.of(user.getUserId(), groupId));
+        }
+        List<List<Object>> roles = new ArrayList<>();
+        for (String roleId : new LinkedHashSet<>(user.getRolesList())) {
+            roles.add(List.of(PRINCIPAL_TYPE, user.getUserId(), roleId));
+        }
+        return SqlUtil.insertRows(exec, "user_group_membership", List.of("userId", "groupId"), List.of("text", "text"), memberships)
+                .flatMapSingle(inserted -> SqlUtil.insertRows(exec, "principal_role", List.of("principal_type", "principal_id", "roleId"), List.of("text", "text", "text"), roles));
     }
 }
@@ -0,0 +1,130 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects the ids requested by concurrent callers into one batch and loads the batch with a single call. A batch is
+ * loaded when it reaches the max batch size, or when the max wait has passed since its first id was requested. Each
+ * caller receives the entities for its own ids, sorted by id.
+ * <p>
+ * The number of ids per batch and the time from the first request to loading are recorded in the histograms
+ * {@code <name>BatchSize} and {@code <name>BatchWaitMicros}.
+ */
+public class BatchLoader<T> {
+
+    private final Function<List<String>, Multi<T>> loader;
+    private final Function<T, String> idOf;
+    private final ScheduledExecutorService scheduler;
+    private final long maxWaitNanos;
+    private final int maxBatchSize;
+
+    private final Histogram batchSize;
+    private final Histogram batchWaitMicros;
+
+    private Batch<T> pending;
+
+    /**
+     * @param loader loads the entities with the given ids, leaving out ids that do not exist.
+     * @param idOf   the id of a loaded entity.
+     */
+    public BatchLoader(String name, Function<List<String>, Multi<T>> loader, Function<T, String> idOf,
+                       ScheduledExecutorService scheduler, Duration maxWait, int maxBatchSize) {
+        this.loader = loader;
+        this.idOf = idOf;
+        this.scheduler = scheduler;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        MetricRegistry registry = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+        this.batchSize = registry.histogram(name + "BatchSize");
+        this.batchWaitMicros = registry.histogram(name + "BatchWaitMicros");
+    }
+
+    public Multi<T> load(List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Multi.empty();
+        }
+        Set<String> sortedIds = new TreeSet<>(ids);
+        Batch<T> batch;
+        boolean full;
+        boolean created = false;
+        synchronized (this) {
+            if (pending == null) {
+                pending = new Batch<>(System.nanoTime());
+                created = true;
+            }
+            batch = pending;
+            batch.ids.addAll(sortedIds);
+            full = batch.ids.size() >= maxBatchSize;
+            if (full) {
+                pending = null;
+            }
+        }
+        if (full) {
+            dispatch(batch);
+        } else if (created) {
+            scheduler.schedule(() -> dispatchIfPending(batch), maxWaitNanos, TimeUnit.NANOSECONDS);
+        }
+        return Single.create(batch.result).flatMapIterable(entitiesById -> {
+            List<T> entities = new ArrayList<>(sortedIds.size());
+            for (String id : sortedIds) {
+                T entity = entitiesById.get(id);
+                if (entity != null) {
+                    entities.add(entity);
+                }
+            }
+            return entities;
+        });
+    }
+
+    private void dispatchIfPending(Batch<T> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return; // already dispatched when it became full
+            }
+            pending = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch<T> batch) {
+        batchSize.update(batch.ids.size());
+        batchWaitMicros.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - batch.createdNanos));
+        try {
+            loader.apply(new ArrayList<>(batch.ids)).collectList().subscribe(entities -> {
+                Map<String, T> entitiesById = new HashMap<>();
+                for (T entity : entities) {
+                    entitiesById.put(idOf.apply(entity), entity);
+                }
+                batch.result.complete(entitiesById);
+            }, batch.result::completeExceptionally);
+        } catch (RuntimeException | Error e) {
+            batch.result.completeExceptionally(e);
+        }
+    }
+
+    private static final class Batch<T> {
+        final Set<String> ids = new TreeSet<>();
+        final CompletableFuture<Map<String, T>> result = new CompletableFuture<>();
+        final long createdNanos;
+
+        Batch(long createdNanos) {
+            this.createdNanos = createdNanos;
+        }
+    }
+}
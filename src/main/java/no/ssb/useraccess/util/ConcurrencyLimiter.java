@@ -0,0 +1,112 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of requests in flight by a limit that adapts to the measured latency: additive increase while
+ * requests complete within the latency threshold and at least half of the limit is in use, multiplicative decrease
+ * when a request is slower than the threshold or fails. The limit is decreased at most once per generation of
+ * requests: a slow or failed request that started before the previous decrease was already in flight when it was
+ * made, and is ignored, so that one burst of slow requests backs off once rather than once per request. Requests
+ * beyond the limit are rejected at once instead of queueing, so that a slow database sheds load early rather than
+ * failing everything when requests time out.
+ * <p>
+ * The limit and the number of requests in flight are exported as the gauges {@code <name>ConcurrencyLimit} and
+ * {@code <name>InFlight}, and rejected requests are counted in {@code <name>ShedCount}.
+ */
+public class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    // guarded by this
+    private boolean decreased;
+    private long lastDecreaseNanos;
+
+    private final Counter shedCount;
+
+    /**
+     * @param initialLimit     the limit until latencies have been measured.
+     * @param latencyThreshold requests slower than this decrease the limit.
+     * @param backoffRatio     the limit is multiplied by this when decreased, between 0 and 1.
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, double backoffRatio) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 1 <= minLimit <= initialLimit <= maxLimit, got " + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Expected backoffRatio between 0 and 1, got " + backoffRatio);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = initialLimit;
+        MetricsUtil.gauge(name + "ConcurrencyLimit", this::getLimit);
+        MetricsUtil.gauge(name + "InFlight", this::getInFlight);
+        this.shedCount = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter(name + "ShedCount");
+    }
+
+    /**
+     * @return whether the request may proceed, in which case it must be released when it completes.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                shedCount.inc();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an acquired request and adapts the limit to how it went.
+     *
+     * @param latencyNanos the time from acquiring to completion.
+     * @param failed       whether the request failed, e.g. timed out.
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        long nowNanos = System.nanoTime();
+        synchronized (this) {
+            if (failed || latencyNanos > latencyThresholdNanos) {
+                if (!decreased || nowNanos - latencyNanos - lastDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    decreased = true;
+                    lastDecreaseNanos = nowNanos;
+                }
+            } else if (current * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+    }
+
+    /**
+     * Releases an acquired request without adapting the limit, e.g. one that was rejected as invalid and says nothing
+     * about the load.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,105 @@
+package no.ssb.useraccess.util;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of parsed entities by id, evicting the least recently used entity when full. Entities expire
+ * after the time-to-live, which bounds how long writes made by other instances go unnoticed. A cache with max size 0
+ * holds nothing.
+ * <p>
+ * Entities read from the database are added with {@link #putIfUnchanged}, which discards the entity if the cache was
+ * written to since the read started. This keeps a slow read from overwriting a newer entity put by a write.
+ */
+public class EntityCache<T> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<String, Entry<T>> entities;
+    private long version;
+
+    public EntityCache(int maxSize, Duration ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entities = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > EntityCache.this.maxSize;
+            }
+        };
+    }
+
+    public static <T> EntityCache<T> disabled() {
+        return new EntityCache<>(0, Duration.ZERO);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the version to pass to {@link #putIfUnchanged} for an entity that is about to be read.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @return the cached entity, or null if it is not cached or has expired.
+     */
+    public synchronized T get(String id) {
+        Entry<T> entry = entities.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.createdNanos > ttlNanos) {
+            entities.remove(id);
+            return null;
+        }
+        return entry.entity;
+    }
+
+    /**
+     * Caches an entity that was read from the database, unless the cache was written to since version.
+     */
+    public synchronized void putIfUnchanged(String id, T entity, long version) {
+        if (isEnabled() && this.version == version) {
+            entities.put(id, new Entry<>(entity, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Caches an entity that was just written to the database.
+     */
+    public synchronized void put(String id, T entity) {
+        version++;
+        if (isEnabled()) {
+            entities.put(id, new Entry<>(entity, System.nanoTime()));
+        }
+    }
+
+    public synchronized void remove(String id) {
+        version++;
+        entities.remove(id);
+    }
+
+    public synchronized void clear() {
+        version++;
+        entities.clear();
+    }
+
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    private static final class Entry<T> {
+        final T entity;
+        final long createdNanos;
+
+        Entry(T entity, long createdNanos) {
+            this.entity = entity;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+public class MetricsUtil {
+
+    /**
+     * Registers a gauge in the application registry, replacing any gauge previously registered under the same name.
+     */
+    public static <T extends Number> Gauge<T> gauge(String name, Gauge<T> gauge) {
+        MetricRegistry registry = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+        registry.remove(name);
+        return registry.register(name, gauge);
+    }
+}
@@ -0,0 +1,18 @@
+package no.ssb.useraccess.util;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+
+public class ProtobufUtil {
+
+    /**
+     * Parses the binary protobuf document of a user, group or role, as stored in the proto column.
+     */
+    public static <T> T parse(byte[] bytes, Parser<T> parser) {
+        try {
+            return parser.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Stored protobuf document could not be parsed", e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.common.reactive.Single;
+import io.helidon.dbclient.DbExecute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class SqlUtil {
+
+    /**
+     * Inserts all rows with one statement, binding one text array per column and unnesting them into rows. The
+     * statement text depends only on the table and columns, so it is reused whatever the number of rows, which is not
+     * bounded by the number of bind parameters. Each row holds one value per column, and each value is cast from its
+     * text form to the type of its column, e.g. text or boolean.
+     *
+     * @return the number of inserted rows.
+     */
+    public static Single<Long> insertRows(DbExecute exec, String table, List<String> columns, List<String> types, Collection<List<Object>> rows) {
+        if (columns.size() != types.size()) {
+            throw new IllegalArgumentException("Expected one type per column, got " + types.size() + " types for " + columns.size() + " columns");
+        }
+        if (rows.isEmpty()) {
+            return Single.just(0L);
+        }
+        List<String> arrays = new ArrayList<>(columns.size());
+        List<String> aliases = new ArrayList<>(columns.size());
+        List<String> values = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            arrays.add("?::text[]");
+            aliases.add("c" + i);
+            values.add("c" + i + "::" + types.get(i));
+        }
+        String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ")"
+                + " SELECT " + String.join(", ", values)
+                + " FROM unnest(" + String.join(", ", arrays) + ") AS r(" + String.join(", ", aliases) + ")";
+        Object[] parameters = new Object[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            String[] column = new String[rows.size()];
+            int r = 0;
+            for (List<Object> row : rows) {
+                column[r++] = String.valueOf(row.get(i));
+            }
+            parameters[i] = column;
+        }
+        return exec.insert(sql, parameters);
+    }
+}
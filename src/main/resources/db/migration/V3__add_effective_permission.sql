@@ -0,0 +1,25 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- every role a user is granted, directly (via_group = '') or through an existing group
+CREATE VIEW effective_permission_source AS
+SELECT u.userId, r.roleId, '' AS via_group
+FROM user_permission u
+         CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'roles') AS r(roleId)
+UNION
+SELECT u.userId, r.roleId, g.groupId AS via_group
+FROM user_permission u
+         CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'groups') AS ug(groupId)
+         JOIN UserGroup g ON g.groupId = ug.groupId
+         CROSS JOIN LATERAL jsonb_array_elements_text(g.document -> 'roles') AS r(roleId);
+
+-- materialized copy of effective_permission_source, maintained on writes when enabled
+CREATE TABLE effective_permission
+(
+    userId    varchar(100) NOT NULL,
+    roleId    varchar(100) NOT NULL,
+    via_group varchar(100) NOT NULL,
+    PRIMARY KEY (userId, roleId, via_group)
+);
+
+CREATE INDEX effective_permission_roleId ON effective_permission (roleId);
+CREATE INDEX effective_permission_via_group ON effective_permission (via_group);
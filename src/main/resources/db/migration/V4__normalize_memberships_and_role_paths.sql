@@ -0,0 +1,72 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- the groups listed by each user document
+CREATE TABLE user_group_membership
+(
+    userId  varchar(100) NOT NULL,
+    groupId varchar(100) NOT NULL,
+    PRIMARY KEY (userId, groupId)
+);
+
+CREATE INDEX user_group_membership_groupId ON user_group_membership (groupId);
+
+-- the roles listed by each user (principal_type 'user') and group (principal_type 'group') document
+CREATE TABLE principal_role
+(
+    principal_type varchar(10)  NOT NULL,
+    principal_id   varchar(100) NOT NULL,
+    roleId         varchar(100) NOT NULL,
+    PRIMARY KEY (principal_type, principal_id, roleId)
+);
+
+CREATE INDEX principal_role_roleId ON principal_role (roleId);
+
+-- the path includes and excludes of each role document
+CREATE TABLE role_path
+(
+    roleId  varchar(100) NOT NULL,
+    exclude boolean      NOT NULL,
+    path    text         NOT NULL,
+    PRIMARY KEY (roleId, exclude, path)
+);
+
+CREATE INDEX role_path_include ON role_path (path text_pattern_ops) WHERE NOT exclude;
+CREATE INDEX role_path_exclude ON role_path (path text_pattern_ops) WHERE exclude;
+
+-- one-shot migration of the existing documents
+INSERT INTO user_group_membership (userId, groupId)
+SELECT DISTINCT u.userId, g.groupId
+FROM user_permission u
+         CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'groups') AS g(groupId);
+
+INSERT INTO principal_role (principal_type, principal_id, roleId)
+SELECT DISTINCT 'user', u.userId, r.roleId
+FROM user_permission u
+         CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'roles') AS r(roleId);
+
+INSERT INTO principal_role (principal_type, principal_id, roleId)
+SELECT DISTINCT 'group', g.groupId, r.roleId
+FROM UserGroup g
+         CROSS JOIN LATERAL jsonb_array_elements_text(g.document -> 'roles') AS r(roleId);
+
+INSERT INTO role_path (roleId, exclude, path)
+SELECT DISTINCT r.roleId, false, p.path
+FROM role r
+         CROSS JOIN LATERAL jsonb_array_elements_text(r.document -> 'paths' -> 'includes') AS p(path);
+
+INSERT INTO role_path (roleId, exclude, path)
+SELECT DISTINCT r.roleId, true, p.path
+FROM role r
+         CROSS JOIN LATERAL jsonb_array_elements_text(r.document -> 'paths' -> 'excludes') AS p(path);
+
+-- derive effective permissions from the normalized tables instead of the documents
+DROP VIEW effective_permission_source;
+
+CREATE VIEW effective_permission_source AS
+SELECT pr.principal_id AS userId, pr.roleId, '' AS via_group
+FROM principal_role pr
+WHERE pr.principal_type = 'user'
+UNION
+SELECT m.userId, pr.roleId, m.groupId AS via_group
+FROM user_group_membership m
+         JOIN principal_role pr ON pr.principal_type = 'group' AND pr.principal_id = m.groupId;
@@ -0,0 +1,8 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- a role without path includes matches every path, like a role with the empty include, so record it as such to find
+-- the roles matching a path with equality lookups on its prefixes
+INSERT INTO role_path (roleId, exclude, path)
+SELECT r.roleId, false, ''
+FROM role r
+WHERE NOT EXISTS(SELECT 1 FROM role_path p WHERE p.roleId = r.roleId AND NOT p.exclude);
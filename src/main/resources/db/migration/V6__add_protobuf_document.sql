@@ -0,0 +1,7 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- binary protobuf copy of each document, read by the service. The jsonb document is kept for ad-hoc SQL.
+-- Existing rows are backfilled and the columns made NOT NULL by the V7 java migration.
+ALTER TABLE role ADD COLUMN proto bytea;
+ALTER TABLE user_permission ADD COLUMN proto bytea;
+ALTER TABLE UserGroup ADD COLUMN proto bytea;
@@ -0,0 +1,129 @@
+package no.ssb.useraccess;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.dbclient.DbClient;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(IntegrationTestExtension.class)
+class NormalizedTablesTest {
+
+    /**
+     * The normalized rows as the migrations derive them from the documents.
+     */
+    static final String MEMBERSHIPS_FROM_DOCUMENTS = "SELECT DISTINCT u.userId || ' ' || g.groupId FROM user_permission u"
+            + " CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'groups') AS g(groupId)";
+    static final String PRINCIPAL_ROLES_FROM_DOCUMENTS = "SELECT DISTINCT 'user ' || u.userId || ' ' || r.roleId FROM user_permission u"
+            + " CROSS JOIN LATERAL jsonb_array_elements_text(u.document -> 'roles') AS r(roleId)"
+            + " UNION SELECT DISTINCT 'group ' || g.groupId || ' ' || r.roleId FROM UserGroup g"
+            + " CROSS JOIN LATERAL jsonb_array_elements_text(g.document -> 'roles') AS r(roleId)";
+    static final String ROLE_PATHS_FROM_DOCUMENTS = "SELECT DISTINCT r.roleId || ' false ' || p.path FROM role r"
+            + " CROSS JOIN LATERAL jsonb_array_elements_text(r.document -> 'paths' -> 'includes') AS p(path)"
+            + " UNION SELECT DISTINCT r.roleId || ' true ' || p.path FROM role r"
+            + " CROSS JOIN LATERAL jsonb_array_elements_text(r.document -> 'paths' -> 'excludes') AS p(path)"
+            + " UNION SELECT r.roleId || ' false ' FROM role r"
+            + " WHERE jsonb_array_length(coalesce(r.document -> 'paths' -> 'includes', '[]'::jsonb)) = 0";
+
+    static final String MEMBERSHIPS = "SELECT userId || ' ' || groupId FROM user_group_membership";
+    static final String PRINCIPAL_ROLES = "SELECT principal_type || ' ' || principal_id || ' ' || roleId FROM principal_role";
+    static final String ROLE_PATHS = "SELECT roleId || ' ' || exclude || ' ' || path FROM role_path";
+
+    @Inject
+    UserAccessApplication application;
+
+    @BeforeEach
+    void clearRepositories() {
+        Multi.concat(
+                application.get(UserRepository.class).deleteAllUsers(),
+                application.get(GroupRepository.class).deleteAllGroups(),
+                application.get(RoleRepository.class).deleteAllRoles())
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+    }
+
+    List<String> rows(String query) {
+        return application.get(DbClient.class).execute(exec -> exec.query(query))
+                .map(dbRow -> dbRow.column(1).as(String.class))
+                .collectList()
+                .map(rows -> {
+                    rows.sort(String::compareTo);
+                    return rows;
+                })
+                .await(3, TimeUnit.SECONDS);
+    }
+
+    void assertMirrorsDocuments() {
+        assertEquals(rows(MEMBERSHIPS_FROM_DOCUMENTS), rows(MEMBERSHIPS));
+        assertEquals(rows(PRINCIPAL_ROLES_FROM_DOCUMENTS), rows(PRINCIPAL_ROLES));
+        assertEquals(rows(ROLE_PATHS_FROM_DOCUMENTS), rows(ROLE_PATHS));
+    }
+
+    void createUser(String userId, List<String> roles, List<String> groups) {
+        User user = User.newBuilder().setUserId(userId).addAllRoles(roles).addAllGroups(groups).build();
+        application.get(UserRepository.class).createOrUpdateUser(user).await(3, TimeUnit.SECONDS);
+    }
+
+    void createGroup(String groupId, List<String> roles) {
+        Group group = Group.newBuilder().setGroupId(groupId).setDescription(groupId).addAllRoles(roles).build();
+        application.get(GroupRepository.class).createOrUpdateGroup(group).await(3, TimeUnit.SECONDS);
+    }
+
+    void createRole(String roleId, List<String> includes, List<String> excludes) {
+        Role role = Role.newBuilder().setRoleId(roleId)
+                .setPaths(PathSet.newBuilder().addAllIncludes(includes).addAllExcludes(excludes).build())
+                .build();
+        application.get(RoleRepository.class).createOrUpdateRole(role).await(3, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void thatNormalizedTablesMirrorTheDocuments() {
+        createRole("reader", List.of("/data/", "/other/"), List.of("/data/private/"));
+        createRole("everything", List.of(), List.of());
+        createGroup("readers", List.of("reader", "reader"));
+        createUser("alice", List.of("everything"), List.of("readers", "missing-group", "readers"));
+        createUser("bob", List.of(), List.of("readers"));
+        assertMirrorsDocuments();
+        assertEquals(List.of("alice missing-group", "alice readers", "bob readers"), rows(MEMBERSHIPS));
+        assertEquals(List.of("group readers reader", "user alice everything"), rows(PRINCIPAL_ROLES));
+        assertEquals(List.of("everything false ", "reader false /data/", "reader false /other/", "reader true /data/private/"), rows(ROLE_PATHS));
+
+        createRole("reader", List.of("/data/"), List.of());
+        createGroup("readers", List.of());
+        createUser("alice", List.of("reader"), List.of());
+        assertMirrorsDocuments();
+
+        application.get(UserRepository.class).deleteUser("bob").await(3, TimeUnit.SECONDS);
+        application.get(GroupRepository.class).deleteGroup("readers").await(3, TimeUnit.SECONDS);
+        application.get(RoleRepository.class).deleteRole("reader").await(3, TimeUnit.SECONDS);
+        assertMirrorsDocuments();
+        assertEquals(List.of("user alice reader"), rows(PRINCIPAL_ROLES));
+        assertEquals(List.of("everything false "), rows(ROLE_PATHS));
+    }
+
+    @Test
+    void thatRolesWithMorePathsThanBindParametersAreMirrored() {
+        List<String> includes = new ArrayList<>();
+        for (int i = 0; i < 12000; i++) {
+            includes.add("/data/" + i + "/");
+        }
+        createRole("many-paths", includes, List.of("/data/private/"));
+        assertEquals(12001, rows(ROLE_PATHS).size());
+        assertMirrorsDocuments();
+    }
+}
@@ -0,0 +1,112 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessServiceCoalescingTest {
+
+    /**
+     * Resolves every user with a role granting everything below /a/, once the resolution is released.
+     */
+    static class BlockingSource implements AuthorizationSource {
+        final AtomicInteger resolveCount = new AtomicInteger();
+        volatile CompletableFuture<Void> release = new CompletableFuture<>();
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, String userId) {
+            resolveCount.incrementAndGet();
+            ResolvedUser resolvedUser = new ResolvedUser(User.newBuilder().setUserId(userId).build(), List.of(), List.of(
+                    CompiledRole.compile(Role.newBuilder()
+                            .setRoleId("a")
+                            .setPaths(PathSet.newBuilder().addIncludes("/a/").build())
+                            .setMaxValuation(Valuation.SENSITIVE)
+                            .build())));
+            return Single.create(release.thenApply(v -> resolvedUser));
+        }
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, User user) {
+            return resolveUser(span, user.getUserId());
+        }
+
+        @Override
+        public Single<AuthorizationSnapshot> snapshot(Span span) {
+            return Single.just(AuthorizationSnapshot.empty());
+        }
+    }
+
+    static Single<Boolean> hasAccess(AccessService accessService, String path) {
+        return accessService.hasAccess(NoopSpan.INSTANCE, "john", Privilege.READ, path, Valuation.OPEN, DatasetState.RAW);
+    }
+
+    @Test
+    void thatConcurrentIdenticalChecksShareOneEvaluation() throws Exception {
+        BlockingSource source = new BlockingSource();
+        AccessService accessService = new AccessService(source, null, null, null, null, null, null);
+
+        CompletableFuture<Boolean> first = hasAccess(accessService, "/a/x").toStage().toCompletableFuture();
+        CompletableFuture<Boolean> second = hasAccess(accessService, "/a/x").toStage().toCompletableFuture();
+        CompletableFuture<Boolean> other = hasAccess(accessService, "/b/x").toStage().toCompletableFuture();
+        assertEquals(2, source.resolveCount.get());
+        assertFalse(first.isDone());
+
+        source.release.complete(null);
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        assertTrue(second.get(1, TimeUnit.SECONDS));
+        assertFalse(other.get(1, TimeUnit.SECONDS));
+
+        // completed checks are no longer shared
+        assertTrue(hasAccess(accessService, "/a/x").await(1, TimeUnit.SECONDS));
+        assertEquals(3, source.resolveCount.get());
+    }
+
+    @Test
+    void thatFailedEvaluationFailsEveryCallerAndIsNotShared() {
+        BlockingSource source = new BlockingSource();
+        AccessService accessService = new AccessService(source, null, null, null, null, null, null);
+
+        CompletableFuture<Boolean> first = hasAccess(accessService, "/a/x").toStage().toCompletableFuture();
+        CompletableFuture<Boolean> second = hasAccess(accessService, "/a/x").toStage().toCompletableFuture();
+        source.release.completeExceptionally(new RuntimeException("database down"));
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+
+        source.release = CompletableFuture.completedFuture(null);
+        assertTrue(hasAccess(accessService, "/a/x").await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void thatBatchResolvesAtMostTheConfiguredNumberOfUsersAtATime() throws Exception {
+        BlockingSource source = new BlockingSource();
+        AccessService accessService = new AccessService(source, null, null, null, null, null, null, null, 2);
+        List<AccessCheck> checks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            checks.add(new AccessCheck("user" + i, Privilege.READ, "/a/x", Valuation.OPEN, DatasetState.RAW));
+        }
+
+        CompletableFuture<List<Boolean>> decisions = accessService.hasAccess(NoopSpan.INSTANCE, checks).toStage().toCompletableFuture();
+        assertEquals(2, source.resolveCount.get());
+
+        source.release.complete(null);
+        assertEquals(List.of(true, true, true, true, true), decisions.get(1, TimeUnit.SECONDS));
+        assertEquals(5, source.resolveCount.get());
+    }
+}
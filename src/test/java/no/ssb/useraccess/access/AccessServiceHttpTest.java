@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
+import io.helidon.webserver.WebServer;
 
 import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
 import no.ssb.dapla.auth.dataset.protobuf.DatasetStateSet;
@@ -29,6 +30,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -112,6 +118,13 @@ class AccessServiceHttpTest {
         return application.get(GroupRepository.class).getGroup(groupId).await();
     }
 
+    HttpResponse<String> post(String uri, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + application.get(WebServer.class).port() + uri))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
     @Test
     void thatGetAccessOnExistingUserWorks() {
         createUser("odin@ssb.no", List.of("user.odin@ssb.no"), List.of("felles"));
@@ -423,4 +436,108 @@ class AccessServiceHttpTest {
         String response = client.get("/access?path=/ns/test/somedir&valuation=internal&state=input").expect200Ok().body();
         assertTrue(response.contains("\"user\":\"john_can_update_shielded\""));
     }
+
+    @Test
+    void thatBatchAccessWorks() throws IOException, InterruptedException {
+        createUser("john_two_roles", List.of("updater"), List.of("group1"));
+        createRole("updater", List.of(Privilege.UPDATE), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createRole("reader", List.of(Privilege.READ), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createGroup("group1", "This is the first group", List.of("reader"));
+        String body = "{\"checks\": ["
+                + "{\"userId\": \"john_two_roles\", \"privilege\": \"UPDATE\", \"path\": \"/ns/test\", \"valuation\": \"INTERNAL\", \"state\": \"RAW\"},"
+                + "{\"userId\": \"john_two_roles\", \"privilege\": \"READ\", \"path\": \"ns/test/a\", \"valuation\": \"OPEN\", \"state\": \"INPUT\"},"
+                + "{\"userId\": \"john_two_roles\", \"privilege\": \"DELETE\", \"path\": \"/ns/test\", \"valuation\": \"INTERNAL\", \"state\": \"RAW\"},"
+                + "{\"userId\": \"does_not_exist\", \"privilege\": \"READ\", \"path\": \"/ns/test\", \"valuation\": \"OPEN\", \"state\": \"RAW\"}"
+                + "]}";
+        HttpResponse<String> response = post("/access/batch", body);
+        assertEquals(200, response.statusCode());
+        JsonNode decisions = new ObjectMapper().readTree(response.body()).get("decisions");
+        assertEquals(4, decisions.size());
+        assertTrue(decisions.get(0).get("granted").booleanValue());
+        assertTrue(decisions.get(1).get("granted").booleanValue());
+        assertEquals("/ns/test/a", decisions.get(1).get("path").textValue());
+        assertFalse(decisions.get(2).get("granted").booleanValue());
+        assertFalse(decisions.get(3).get("granted").booleanValue());
+    }
+
+    @Test
+    void thatBatchAccessWithInvalidBodyReturns400() throws IOException, InterruptedException {
+        assertEquals(400, post("/access/batch", "{\"checks\": [{\"userId\": \"john\"}]}").statusCode());
+        assertEquals(400, post("/access/batch", "not json").statusCode());
+    }
+
+    @Test
+    void thatFilterAccessiblePathsWorks() throws IOException, InterruptedException {
+        createUser("john_paths", List.of("reader"), List.of());
+        createRole("reader", List.of(Privilege.READ), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        String body = "{\"paths\": [\"/ns/test/b\", \"/other/a\", \"ns/test/a\", \"/ns/testing\", \"/ns/tes\"]}";
+        HttpResponse<String> response = post("/access/john_paths/paths?privilege=READ&valuation=OPEN&state=RAW", body);
+        assertEquals(200, response.statusCode());
+        JsonNode paths = new ObjectMapper().readTree(response.body()).get("paths");
+        assertEquals(3, paths.size());
+        assertEquals("/ns/test/b", paths.get(0).textValue());
+        assertEquals("/ns/test/a", paths.get(1).textValue());
+        assertEquals("/ns/testing", paths.get(2).textValue());
+
+        response = post("/access/john_paths/paths?privilege=DELETE&valuation=OPEN&state=RAW", body);
+        assertEquals(200, response.statusCode());
+        assertEquals(0, new ObjectMapper().readTree(response.body()).get("paths").size());
+
+        assertEquals(400, post("/access/john_paths/paths?privilege=READ&valuation=OPEN&state=RAW", "{\"paths\": \"/ns\"}").statusCode());
+    }
+
+    @Test
+    void thatGrantedPrivilegesWorks() throws JsonProcessingException {
+        createUser("john_privileges", List.of("updater"), List.of("group1"));
+        createRole("updater", List.of(Privilege.UPDATE), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createRole("reader", List.of(Privilege.READ), List.of("/ns/test"), Valuation.SENSITIVE, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createGroup("group1", "This is the first group", List.of("reader"));
+
+        JsonNode privileges = new ObjectMapper().readTree(client.get("/access/john_privileges/privileges?path=/ns/test/a&valuation=INTERNAL&state=RAW").expect200Ok().body()).get("privileges");
+        assertEquals(2, privileges.size());
+        assertEquals("READ", privileges.get(0).textValue());
+        assertEquals("UPDATE", privileges.get(1).textValue());
+
+        privileges = new ObjectMapper().readTree(client.get("/access/john_privileges/privileges?path=/ns/test/a&valuation=SENSITIVE&state=RAW").expect200Ok().body()).get("privileges");
+        assertEquals(1, privileges.size());
+        assertEquals("READ", privileges.get(0).textValue());
+
+        privileges = new ObjectMapper().readTree(client.get("/access/john_privileges/privileges?path=/ns/other&valuation=OPEN&state=RAW").expect200Ok().body()).get("privileges");
+        assertEquals(0, privileges.size());
+    }
+
+    @Test
+    void thatAccessScopeWorks() throws JsonProcessingException {
+        createUser("john_scope", List.of("updater"), List.of("group1"));
+        createRole("updater", List.of(Privilege.UPDATE), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createRole("reader", List.of(Privilege.READ), List.of("/ns/test"), Valuation.SHIELDED, List.of(DatasetState.INPUT, DatasetState.PROCESSED));
+        createGroup("group1", "This is the first group", List.of("reader"));
+
+        JsonNode scope = new ObjectMapper().readTree(client.get("/access/john_scope/scope?privilege=READ&path=/ns/test/a").expect200Ok().body());
+        assertEquals("SHIELDED", scope.get("maxValuation").textValue());
+        assertEquals(2, scope.get("states").size());
+        assertEquals("INPUT", scope.get("states").get(0).textValue());
+        assertEquals("PROCESSED", scope.get("states").get(1).textValue());
+
+        scope = new ObjectMapper().readTree(client.get("/access/john_scope/scope?privilege=DELETE&path=/ns/test/a").expect200Ok().body());
+        assertFalse(scope.has("maxValuation"));
+        assertEquals(0, scope.get("states").size());
+    }
+
+    @Test
+    void thatAccessiblePrefixesWorks() throws JsonProcessingException {
+        createUser("john_prefixes", List.of("updater"), List.of("group1"));
+        createRole("updater", List.of(Privilege.UPDATE), List.of("/ns/test"), Valuation.INTERNAL, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createRole("reader", List.of(Privilege.READ, Privilege.UPDATE), List.of("/ns/other", "/ns/test/sub"), Valuation.SENSITIVE, List.of(DatasetState.RAW));
+        createGroup("group1", "This is the first group", List.of("reader"));
+
+        JsonNode prefixes = new ObjectMapper().readTree(client.get("/access/john_prefixes/prefixes?privilege=UPDATE&valuation=INTERNAL&state=RAW").expect200Ok().body()).get("prefixes");
+        assertEquals(2, prefixes.size());
+        assertEquals("/ns/other", prefixes.get(0).get("prefix").textValue());
+        assertEquals("/ns/test", prefixes.get(1).get("prefix").textValue());
+        assertEquals(0, prefixes.get(1).get("excludes").size());
+
+        prefixes = new ObjectMapper().readTree(client.get("/access/john_prefixes/prefixes?privilege=READ&valuation=SENSITIVE&state=INPUT").expect200Ok().body()).get("prefixes");
+        assertEquals(0, prefixes.size());
+    }
 }
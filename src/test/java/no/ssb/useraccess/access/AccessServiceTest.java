@@ -4,15 +4,29 @@ import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
 import no.ssb.dapla.auth.dataset.protobuf.DatasetStateSet;
 import no.ssb.dapla.auth.dataset.protobuf.PathSet;
 import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.PrivilegeSet;
 import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
 import no.ssb.dapla.auth.dataset.protobuf.Valuation;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AccessServiceTest {
 
+    static boolean matchRole(Role role, Privilege privilege, String path, Valuation valuation, DatasetState state) {
+        return CompiledRole.compile(role).matches(privilege, path, valuation, state);
+    }
+
     @Test
     public void thatMatchRoleWorks() {
         Role role = Role.newBuilder()
@@ -27,27 +41,174 @@ class AccessServiceTest {
                 .build();
 
         // Path
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/someoneelse/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/someone-else/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/anyone-else/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/someone/private/something", Valuation.SHIELDED, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/privatethis", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/someoneelse/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/someone-else/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/anyone-else/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/someone/private/something", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/privatethis", Valuation.SHIELDED, DatasetState.INPUT));
 
         // State exclude set
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.RAW));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.RAW));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
 
         // Valuation limit
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.OPEN, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.INTERNAL, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertFalse(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SENSITIVE, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.OPEN, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.INTERNAL, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SENSITIVE, DatasetState.INPUT));
 
         // Privileges
-        assertTrue(AccessService.matchRole(role, Privilege.CREATE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.UPDATE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
-        assertTrue(AccessService.matchRole(role, Privilege.DELETE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.CREATE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.READ, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.UPDATE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+        assertTrue(matchRole(role, Privilege.DELETE, "/user/someone/test1", Valuation.SHIELDED, DatasetState.INPUT));
+    }
+
+    @Test
+    public void thatMatchRoleWorksWithIncludeSets() {
+        Role role = Role.newBuilder()
+                .setPrivileges(PrivilegeSet.newBuilder()
+                        .addIncludes(Privilege.READ)
+                        .addIncludes(Privilege.UPDATE)
+                        .addExcludes(Privilege.UPDATE)
+                        .build())
+                .setPaths(PathSet.newBuilder()
+                        .addIncludes("/b/")
+                        .addIncludes("/a/")
+                        .build())
+                .setMaxValuation(Valuation.OPEN)
+                .setStates(DatasetStateSet.newBuilder()
+                        .addIncludes(DatasetState.PRODUCT)
+                        .addIncludes(DatasetState.OUTPUT)
+                        .build())
+                .build();
+
+        // Privilege include set, exclude wins over include
+        assertTrue(matchRole(role, Privilege.READ, "/a/test1", Valuation.OPEN, DatasetState.OUTPUT));
+        assertFalse(matchRole(role, Privilege.UPDATE, "/a/test1", Valuation.OPEN, DatasetState.OUTPUT));
+        assertFalse(matchRole(role, Privilege.CREATE, "/a/test1", Valuation.OPEN, DatasetState.OUTPUT));
+        assertTrue(matchRole(role, null, "/a/test1", Valuation.OPEN, DatasetState.OUTPUT));
+
+        // Path include set
+        assertTrue(matchRole(role, Privilege.READ, "/b/test1", Valuation.OPEN, DatasetState.OUTPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/c/test1", Valuation.OPEN, DatasetState.OUTPUT));
+
+        // State include set
+        assertTrue(matchRole(role, Privilege.READ, "/a/test1", Valuation.OPEN, DatasetState.PRODUCT));
+        assertFalse(matchRole(role, Privilege.READ, "/a/test1", Valuation.OPEN, DatasetState.RAW));
+
+        // Valuation limit
+        assertFalse(matchRole(role, Privilege.READ, "/a/test1", Valuation.INTERNAL, DatasetState.OUTPUT));
+        assertFalse(matchRole(role, Privilege.READ, "/a/test1", Valuation.UNRECOGNIZED, DatasetState.OUTPUT));
+    }
+
+    @Test
+    public void thatFilterAccessiblePathsMatchesPerPathEvaluation() {
+        List<CompiledRole> roles = List.of(
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("reader")
+                        .setPrivileges(PrivilegeSet.newBuilder().addIncludes(Privilege.READ).build())
+                        .setPaths(PathSet.newBuilder()
+                                .addIncludes("/a/")
+                                .addIncludes("/b/x")
+                                .addExcludes("/a/private/")
+                                .build())
+                        .setMaxValuation(Valuation.SENSITIVE)
+                        .build()),
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("private-reader")
+                        .setPaths(PathSet.newBuilder()
+                                .addIncludes("/a/private/shared")
+                                .build())
+                        .setMaxValuation(Valuation.INTERNAL)
+                        .build()),
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("everything-but-c")
+                        .setPrivileges(PrivilegeSet.newBuilder().addIncludes(Privilege.DELETE).build())
+                        .setPaths(PathSet.newBuilder()
+                                .addExcludes("/c")
+                                .build())
+                        .setMaxValuation(Valuation.SENSITIVE)
+                        .build()));
+        ResolvedUser user = new ResolvedUser(User.newBuilder().setUserId("u").build(), List.of(), roles);
+
+        String[] segments = {"a", "b", "c", "x", "private", "shared", "xy"};
+        Random random = new Random(7);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder path = new StringBuilder();
+            for (int j = 0, n = 1 + random.nextInt(4); j < n; j++) {
+                path.append('/').append(segments[random.nextInt(segments.length)]);
+            }
+            paths.add(path.toString());
+        }
+
+        for (Privilege privilege : List.of(Privilege.READ, Privilege.DELETE, Privilege.CREATE)) {
+            for (Valuation valuation : List.of(Valuation.OPEN, Valuation.SENSITIVE)) {
+                List<String> expected = paths.stream()
+                        .filter(path -> AccessService.hasAccess(null, user, privilege, path, valuation, DatasetState.RAW))
+                        .collect(Collectors.toList());
+                assertEquals(expected, AccessService.filterAccessiblePaths(user, privilege, valuation, DatasetState.RAW, paths));
+            }
+        }
+    }
+
+    @Test
+    public void thatGrantedPrivilegesCombinesMatchingRoles() {
+        List<CompiledRole> roles = List.of(
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("reader")
+                        .setPrivileges(PrivilegeSet.newBuilder().addIncludes(Privilege.READ).build())
+                        .setPaths(PathSet.newBuilder().addIncludes("/a/").build())
+                        .setMaxValuation(Valuation.SENSITIVE)
+                        .build()),
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("all-but-delete")
+                        .setPrivileges(PrivilegeSet.newBuilder().addExcludes(Privilege.DELETE).build())
+                        .setPaths(PathSet.newBuilder().addIncludes("/a/b/").build())
+                        .setMaxValuation(Valuation.INTERNAL)
+                        .build()));
+        ResolvedUser user = new ResolvedUser(User.newBuilder().setUserId("u").build(), List.of(), roles);
+
+        assertEquals(EnumSet.of(Privilege.READ), AccessService.grantedPrivileges(user, "/a/x", Valuation.INTERNAL, DatasetState.RAW));
+        assertEquals(EnumSet.of(Privilege.CREATE, Privilege.READ, Privilege.UPDATE), AccessService.grantedPrivileges(user, "/a/b/x", Valuation.INTERNAL, DatasetState.RAW));
+        assertEquals(EnumSet.of(Privilege.READ), AccessService.grantedPrivileges(user, "/a/b/x", Valuation.SENSITIVE, DatasetState.RAW));
+        assertEquals(EnumSet.noneOf(Privilege.class), AccessService.grantedPrivileges(user, "/b", Valuation.OPEN, DatasetState.RAW));
+        for (Privilege privilege : List.of(Privilege.CREATE, Privilege.READ, Privilege.UPDATE, Privilege.DELETE)) {
+            assertEquals(AccessService.hasAccess(null, user, privilege, "/a/b/x", Valuation.INTERNAL, DatasetState.RAW),
+                    AccessService.grantedPrivileges(user, "/a/b/x", Valuation.INTERNAL, DatasetState.RAW).contains(privilege));
+        }
+    }
+
+    @Test
+    public void thatAccessScopeCombinesMatchingRoles() {
+        List<CompiledRole> roles = List.of(
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("raw-reader")
+                        .setPrivileges(PrivilegeSet.newBuilder().addIncludes(Privilege.READ).build())
+                        .setPaths(PathSet.newBuilder().addIncludes("/a/").build())
+                        .setMaxValuation(Valuation.INTERNAL)
+                        .setStates(DatasetStateSet.newBuilder().addIncludes(DatasetState.RAW).build())
+                        .build()),
+                CompiledRole.compile(Role.newBuilder()
+                        .setRoleId("sensitive-reader")
+                        .setPaths(PathSet.newBuilder().addIncludes("/a/b/").build())
+                        .setMaxValuation(Valuation.SENSITIVE)
+                        .setStates(DatasetStateSet.newBuilder().addExcludes(DatasetState.RAW).addExcludes(DatasetState.INPUT).build())
+                        .build()));
+        ResolvedUser user = new ResolvedUser(User.newBuilder().setUserId("u").build(), List.of(), roles);
+
+        AccessScope scope = AccessService.accessScope(user, Privilege.READ, "/a/x");
+        assertEquals(InternalValuation.INTERNAL, scope.getMaxValuation());
+        assertEquals(EnumSet.of(DatasetState.RAW), scope.getStates());
+
+        scope = AccessService.accessScope(user, Privilege.READ, "/a/b/x");
+        assertEquals(InternalValuation.SENSITIVE, scope.getMaxValuation());
+        assertEquals(EnumSet.complementOf(EnumSet.of(DatasetState.INPUT, DatasetState.UNRECOGNIZED)), scope.getStates());
+
+        scope = AccessService.accessScope(user, Privilege.DELETE, "/a/x");
+        assertNull(scope.getMaxValuation());
+        assertEquals(EnumSet.noneOf(DatasetState.class), scope.getStates());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AuthorizationSnapshotTest {
+
+    static User user(String userId, List<String> roles, List<String> groups) {
+        return User.newBuilder().setUserId(userId).addAllRoles(roles).addAllGroups(groups).build();
+    }
+
+    static Group group(String groupId, List<String> roles) {
+        return Group.newBuilder().setGroupId(groupId).addAllRoles(roles).build();
+    }
+
+    static Role role(String roleId) {
+        return Role.newBuilder().setRoleId(roleId).build();
+    }
+
+    static List<String> roleIds(ResolvedUser resolvedUser) {
+        return resolvedUser.getRoles().stream().map(CompiledRole::getRoleId).collect(Collectors.toList());
+    }
+
+    @Test
+    void thatResolveCombinesDirectAndGroupRoles() {
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.empty().replaceAll(
+                List.of(user("john", List.of("reader", "missing"), List.of("group1", "nogroup"))),
+                List.of(group("group1", List.of("writer", "reader"))),
+                List.of(role("reader"), role("writer")));
+        ResolvedUser resolved = snapshot.resolve(snapshot.getUser("john"));
+        assertEquals(List.of("reader", "writer"), roleIds(resolved));
+        assertEquals(1, resolved.getGroups().size());
+    }
+
+    @Test
+    void thatModificationsAreCopyOnWrite() {
+        AuthorizationSnapshot first = AuthorizationSnapshot.empty().replaceAll(
+                List.of(user("john", List.of("reader"), List.of())), List.of(), List.of(role("reader")));
+        AuthorizationSnapshot second = first.withRole(role("writer")).withUser(user("john", List.of("reader", "writer"), List.of()));
+        AuthorizationSnapshot third = second.withoutRole("reader").withoutUser("jane");
+
+        assertEquals(List.of("reader"), roleIds(first.resolve(first.getUser("john"))));
+        assertEquals(List.of("reader", "writer"), roleIds(second.resolve(second.getUser("john"))));
+        assertEquals(List.of("writer"), roleIds(third.resolve(third.getUser("john"))));
+        assertEquals(first.getVersion() + 2, second.getVersion());
+        assertEquals(second.getVersion() + 2, third.getVersion());
+
+        AuthorizationSnapshot cleared = third.withoutUsers();
+        assertNull(cleared.getUser("john"));
+        assertEquals(1, cleared.getRoles().size());
+    }
+}
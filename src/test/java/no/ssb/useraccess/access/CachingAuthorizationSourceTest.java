@@ -0,0 +1,122 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CachingAuthorizationSourceTest {
+
+    /**
+     * Resolves users with the given number of roles each, counting the calls.
+     */
+    static class CountingSource implements AuthorizationSource {
+        final AtomicInteger resolveCount = new AtomicInteger();
+        final int rolesPerUser;
+
+        CountingSource(int rolesPerUser) {
+            this.rolesPerUser = rolesPerUser;
+        }
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, String userId) {
+            return resolveUser(span, User.newBuilder().setUserId(userId).addRoles("role").build());
+        }
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, User user) {
+            resolveCount.incrementAndGet();
+            List<CompiledRole> roles = new ArrayList<>();
+            for (int i = 0; i < rolesPerUser; i++) {
+                roles.add(CompiledRole.compile(Role.newBuilder().setRoleId("role").build()));
+            }
+            return Single.just(new ResolvedUser(user, List.of(), roles));
+        }
+
+        @Override
+        public Single<AuthorizationSnapshot> snapshot(Span span) {
+            return Single.just(AuthorizationSnapshot.empty());
+        }
+    }
+
+    static ResolvedUser resolve(AuthorizationSource source, String userId) {
+        return source.resolveUser(NoopSpan.INSTANCE, userId).await();
+    }
+
+    @Test
+    void thatResolvedUserIsCachedUntilInvalidated() {
+        CountingSource delegate = new CountingSource(3);
+        UserDependencyTracker tracker = new UserDependencyTracker();
+        CachingAuthorizationSource source = new CachingAuthorizationSource(delegate, tracker, 100, Duration.ofMinutes(1));
+
+        ResolvedUser first = resolve(source, "john");
+        assertSame(first, resolve(source, "john"));
+        assertEquals(1, delegate.resolveCount.get());
+        assertEquals(4, source.weight());
+
+        tracker.roleDeleted("role");
+        ResolvedUser second = resolve(source, "john");
+        assertEquals(2, delegate.resolveCount.get());
+        assertSame(second, resolve(source, "john"));
+        assertEquals(4, source.weight());
+    }
+
+    @Test
+    void thatLeastRecentlyUsedUsersAreEvictedByWeight() {
+        CountingSource delegate = new CountingSource(4);
+        CachingAuthorizationSource source = new CachingAuthorizationSource(delegate, new UserDependencyTracker(), 12, Duration.ofMinutes(1));
+
+        resolve(source, "a");
+        resolve(source, "b");
+        resolve(source, "a");
+        resolve(source, "c"); // weight 15 > 12, evicts b
+        assertEquals(2, source.size());
+        assertEquals(10, source.weight());
+        resolve(source, "a");
+        resolve(source, "c");
+        assertEquals(3, delegate.resolveCount.get());
+        resolve(source, "b");
+        assertEquals(4, delegate.resolveCount.get());
+    }
+
+    @Test
+    void thatTrackerForgetsEvictedUsers() {
+        CountingSource delegate = new CountingSource(4);
+        UserDependencyTracker tracker = new UserDependencyTracker();
+        CachingAuthorizationSource source = new CachingAuthorizationSource(delegate, tracker, 12, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 100; i++) {
+            resolve(source, "user" + i);
+        }
+        assertEquals(2, source.size());
+        assertEquals(2, tracker.size());
+        assertEquals(1, tracker.indexSize());
+
+        // invalidated users are discarded and resolved again
+        tracker.roleDeleted("role");
+        resolve(source, "user98");
+        resolve(source, "user99");
+        assertEquals(102, delegate.resolveCount.get());
+        assertEquals(2, tracker.size());
+    }
+
+    @Test
+    void thatUserHeavierThanCacheIsNotCached() {
+        CountingSource delegate = new CountingSource(20);
+        CachingAuthorizationSource source = new CachingAuthorizationSource(delegate, new UserDependencyTracker(), 10, Duration.ofMinutes(1));
+        resolve(source, "heavy");
+        resolve(source, "heavy");
+        assertEquals(2, delegate.resolveCount.get());
+        assertEquals(0, source.size());
+    }
+}
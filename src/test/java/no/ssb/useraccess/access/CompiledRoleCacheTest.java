@@ -0,0 +1,46 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CompiledRoleCacheTest {
+
+    static Role role(String roleId, String include) {
+        return Role.newBuilder()
+                .setRoleId(roleId)
+                .setPaths(PathSet.newBuilder().addIncludes(include).build())
+                .build();
+    }
+
+    @Test
+    void thatUnchangedRolesAreCompiledOnce() {
+        CompiledRoleCache cache = new CompiledRoleCache();
+        CompiledRole compiled = cache.compile(role("reader", "/a/"));
+        assertSame(compiled, cache.compile(role("reader", "/a/")));
+
+        CompiledRole changed = cache.compile(role("reader", "/b/"));
+        assertNotSame(compiled, changed);
+        assertEquals("/b/", changed.getPathIncludes()[0]);
+        assertSame(changed, cache.compile(role("reader", "/b/")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void thatWrittenRolesAreForgotten() {
+        CompiledRoleCache cache = new CompiledRoleCache();
+        cache.compile(role("reader", "/a/"));
+        cache.compile(role("writer", "/a/"));
+        cache.roleUpdated(role("reader", "/b/"));
+        assertEquals(1, cache.size());
+        cache.roleDeleted("writer");
+        assertEquals(0, cache.size());
+        cache.compile(role("reader", "/a/"));
+        cache.allRolesDeleted();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,115 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DecisionCacheTest {
+
+    static final User USER = User.newBuilder().setUserId("john").addRoles("direct").addGroups("group1").addGroups("missing-group").build();
+    static final Group GROUP = Group.newBuilder().setGroupId("group1").addRoles("via-group").addRoles("missing-role").build();
+    static final ResolvedUser RESOLVED_USER = new ResolvedUser(USER, List.of(GROUP), List.of());
+
+    static AccessCheck check(String userId, String path) {
+        return new AccessCheck(userId, Privilege.READ, path, Valuation.OPEN, DatasetState.RAW);
+    }
+
+    static DecisionCache cacheWithDecision(UserDependencyTracker tracker) {
+        DecisionCache cache = new DecisionCache(tracker, 10, Duration.ofMinutes(1));
+        cache.put(check("john", "/a"), RESOLVED_USER, true, cache.currentVersion());
+        assertEquals(Boolean.TRUE, cache.get(check("john", "/a")));
+        return cache;
+    }
+
+    @Test
+    void thatDecisionsAreInvalidatedByEveryDocumentTheUserDependsOn() {
+        UserDependencyTracker tracker = new UserDependencyTracker();
+
+        DecisionCache cache = cacheWithDecision(tracker);
+        tracker.userUpdated(User.newBuilder().setUserId("someone-else").build());
+        tracker.groupUpdated(Group.newBuilder().setGroupId("unrelated").build());
+        tracker.roleDeleted("unrelated");
+        assertEquals(Boolean.TRUE, cache.get(check("john", "/a")));
+
+        tracker.userUpdated(USER);
+        assertNull(cache.get(check("john", "/a")));
+
+        cache = cacheWithDecision(tracker);
+        tracker.groupDeleted("missing-group");
+        assertNull(cache.get(check("john", "/a")));
+
+        cache = cacheWithDecision(tracker);
+        tracker.roleUpdated(Role.newBuilder().setRoleId("direct").build());
+        assertNull(cache.get(check("john", "/a")));
+
+        cache = cacheWithDecision(tracker);
+        tracker.roleUpdated(Role.newBuilder().setRoleId("missing-role").build());
+        assertNull(cache.get(check("john", "/a")));
+
+        cache = cacheWithDecision(tracker);
+        tracker.allGroupsDeleted();
+        assertNull(cache.get(check("john", "/a")));
+    }
+
+    @Test
+    void thatDecisionMadeFromChangedDocumentsIsNotCached() {
+        UserDependencyTracker tracker = new UserDependencyTracker();
+        DecisionCache cache = new DecisionCache(tracker, 10, Duration.ofMinutes(1));
+        long version = cache.currentVersion();
+        tracker.roleUpdated(Role.newBuilder().setRoleId("via-group").build()); // while the user was being resolved
+        cache.put(check("john", "/a"), RESOLVED_USER, true, version);
+        assertNull(cache.get(check("john", "/a")));
+    }
+
+    @Test
+    void thatLeastRecentlyUsedDecisionIsEvicted() {
+        DecisionCache cache = new DecisionCache(new UserDependencyTracker(), 2, Duration.ofMinutes(1));
+        cache.put(check("john", "/a"), RESOLVED_USER, true, cache.currentVersion());
+        cache.put(check("john", "/b"), RESOLVED_USER, false, cache.currentVersion());
+        assertEquals(Boolean.TRUE, cache.get(check("john", "/a")));
+        cache.put(check("john", "/c"), RESOLVED_USER, true, cache.currentVersion());
+        assertEquals(2, cache.size());
+        assertNull(cache.get(check("john", "/b")));
+        assertEquals(Boolean.TRUE, cache.get(check("john", "/a")));
+        assertEquals(Boolean.TRUE, cache.get(check("john", "/c")));
+    }
+
+    @Test
+    void thatTrackerForgetsUsersWithoutCachedDecisions() {
+        UserDependencyTracker tracker = new UserDependencyTracker();
+        DecisionCache cache = new DecisionCache(tracker, 2, Duration.ofMinutes(1));
+        for (String userId : List.of("a", "b", "c")) {
+            ResolvedUser resolvedUser = new ResolvedUser(USER.toBuilder().setUserId(userId).build(), List.of(GROUP), List.of());
+            cache.put(check(userId, "/x"), resolvedUser, true, cache.currentVersion());
+            cache.put(check(userId, "/x"), resolvedUser, true, cache.currentVersion());
+        }
+        assertEquals(2, tracker.size()); // a was evicted
+
+        tracker.userUpdated(User.newBuilder().setUserId("b").build());
+        assertNull(cache.get(check("b", "/x")));
+        assertEquals(1, tracker.size());
+
+        tracker.userUpdated(User.newBuilder().setUserId("c").build());
+        assertNull(cache.get(check("c", "/x")));
+        assertEquals(0, tracker.size());
+        assertEquals(0, tracker.indexSize());
+    }
+
+    @Test
+    void thatExpiredDecisionIsDiscarded() throws InterruptedException {
+        DecisionCache cache = new DecisionCache(new UserDependencyTracker(), 10, Duration.ofMillis(1));
+        cache.put(check("john", "/a"), RESOLVED_USER, true, cache.currentVersion());
+        Thread.sleep(10);
+        assertNull(cache.get(check("john", "/a")));
+    }
+}
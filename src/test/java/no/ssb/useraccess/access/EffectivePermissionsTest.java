@@ -0,0 +1,155 @@
+package no.ssb.useraccess.access;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.helidon.common.reactive.Multi;
+import io.helidon.dbclient.DbClient;
+import io.opentracing.noop.NoopSpan;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.UserAccessApplication;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.permission.EffectivePermissions;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.useraccess.util.EntityCache;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(IntegrationTestExtension.class)
+class EffectivePermissionsTest {
+
+    @Inject
+    UserAccessApplication application;
+
+    DbClient dbClient;
+    EffectivePermissions effectivePermissions;
+    UserRepository userRepository;
+    GroupRepository groupRepository;
+    RoleRepository roleRepository;
+    AccessRepository accessRepository;
+
+    @BeforeEach
+    void clearRepositories() {
+        dbClient = application.get(DbClient.class);
+        effectivePermissions = new EffectivePermissions(dbClient, true);
+        userRepository = new UserRepository(dbClient, EntityCache.disabled(), effectivePermissions);
+        groupRepository = new GroupRepository(dbClient, EntityCache.disabled(), effectivePermissions);
+        roleRepository = new RoleRepository(dbClient);
+        accessRepository = new AccessRepository(dbClient, true);
+        Multi.concat(
+                userRepository.deleteAllUsers(),
+                groupRepository.deleteAllGroups(),
+                roleRepository.deleteAllRoles())
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+    }
+
+    void createUser(String userId, List<String> roles, List<String> groups) {
+        User user = User.newBuilder().setUserId(userId).addAllRoles(roles).addAllGroups(groups).build();
+        userRepository.createOrUpdateUser(user).await(3, TimeUnit.SECONDS);
+    }
+
+    void createGroup(String groupId, List<String> roles) {
+        Group group = Group.newBuilder().setGroupId(groupId).setDescription(groupId).addAllRoles(roles).build();
+        groupRepository.createOrUpdateGroup(group).await(3, TimeUnit.SECONDS);
+    }
+
+    void createRole(String roleId, String pathInclude) {
+        Role role = Role.newBuilder().setRoleId(roleId).setPaths(PathSet.newBuilder().addIncludes(pathInclude).build()).build();
+        roleRepository.createOrUpdateRole(role).await(3, TimeUnit.SECONDS);
+    }
+
+    List<String> rows(String table) {
+        return dbClient.execute(exec -> exec.query("SELECT userId, roleId, via_group FROM " + table))
+                .map(dbRow -> dbRow.column(1).as(String.class) + " " + dbRow.column(2).as(String.class) + " " + dbRow.column(3).as(String.class))
+                .collectList()
+                .map(rows -> {
+                    rows.sort(String::compareTo);
+                    return rows;
+                })
+                .await(3, TimeUnit.SECONDS);
+    }
+
+    void assertMaintained() {
+        assertEquals(rows("effective_permission_source"), rows("effective_permission"));
+    }
+
+    @Test
+    void thatTableIsMaintainedOnUserAndGroupWrites() {
+        createGroup("readers", List.of("reader", "missing-role"));
+        createUser("alice", List.of("writer"), List.of("readers", "missing-group"));
+        assertEquals(List.of("alice missing-role readers", "alice reader readers", "alice writer "), rows("effective_permission"));
+
+        createUser("bob", List.of(), List.of("readers", "writers"));
+        createGroup("writers", List.of("writer"));
+        assertMaintained();
+        assertEquals(3 + 3, rows("effective_permission").size());
+
+        createGroup("readers", List.of("reader"));
+        assertMaintained();
+
+        userRepository.deleteUser("alice").await(3, TimeUnit.SECONDS);
+        assertMaintained();
+        assertEquals(List.of("bob reader readers", "bob writer writers"), rows("effective_permission"));
+
+        groupRepository.deleteGroup("writers").await(3, TimeUnit.SECONDS);
+        assertMaintained();
+
+        createUser("carol", List.of("reader"), List.of("readers"));
+        groupRepository.deleteAllGroups().await(3, TimeUnit.SECONDS);
+        assertEquals(List.of("carol reader "), rows("effective_permission"));
+
+        userRepository.deleteAllUsers().await(3, TimeUnit.SECONDS);
+        assertEquals(List.of(), rows("effective_permission"));
+    }
+
+    @Test
+    void thatRebuildRestoresWritesMadeWhileDisabled() {
+        createGroup("readers", List.of("reader"));
+        new UserRepository(dbClient).createOrUpdateUser(User.newBuilder().setUserId("dave").addGroups("readers").build())
+                .await(3, TimeUnit.SECONDS);
+        assertEquals(List.of(), rows("effective_permission"));
+
+        assertEquals(1L, effectivePermissions.rebuild().await(3, TimeUnit.SECONDS));
+        assertMaintained();
+    }
+
+    @Test
+    void thatListingUsersByPathMatchesSnapshotSearch() {
+        createRole("reader", "/data/");
+        createRole("writer", "/data/private/");
+        createRole("other", "/other/");
+        roleRepository.createOrUpdateRole(Role.newBuilder().setRoleId("everywhere-but-private")
+                .setPaths(PathSet.newBuilder().addExcludes("/data/private/").build()).build()).await(3, TimeUnit.SECONDS);
+        createGroup("readers", List.of("reader"));
+        createGroup("writers", List.of("writer", "reader"));
+        createUser("alice", List.of("reader"), List.of("writers"));
+        createUser("bob", List.of(), List.of("readers", "writers"));
+        createUser("carol", List.of("other", "writer", "everywhere-but-private"), List.of());
+
+        AccessService snapshotSearch = new AccessService(new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository),
+                null, null, null, userRepository, groupRepository, roleRepository, null);
+        AccessService tableSearch = new AccessService(new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository),
+                null, null, accessRepository, userRepository, groupRepository, roleRepository, null);
+        AccessService viewSearch = new AccessService(new DatabaseAuthorizationSource(userRepository, groupRepository, roleRepository),
+                null, null, new AccessRepository(dbClient, false), userRepository, groupRepository, roleRepository, null);
+        for (String path : List.of("/data/private/x", "/data/x", "/other/x", "/none")) {
+            JsonNode expected = snapshotSearch.listMatchingUsersRolesAndGroupsByPath(NoopSpan.INSTANCE, path, "open", "raw")
+                    .await(3, TimeUnit.SECONDS);
+            assertEquals(expected, tableSearch.listMatchingUsersRolesAndGroupsByPath(NoopSpan.INSTANCE, path, "open", "raw")
+                    .await(3, TimeUnit.SECONDS), path);
+            assertEquals(expected, viewSearch.listMatchingUsersRolesAndGroupsByPath(NoopSpan.INSTANCE, path, "open", "raw")
+                    .await(3, TimeUnit.SECONDS), path);
+        }
+    }
+}
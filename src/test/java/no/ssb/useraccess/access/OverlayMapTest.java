@@ -0,0 +1,60 @@
+package no.ssb.useraccess.access;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OverlayMapTest {
+
+    @Test
+    void thatModificationsLeaveEarlierMapsAlone() {
+        OverlayMap<String> first = OverlayMap.of(new HashMap<>(Map.of("a", "1", "b", "2")));
+        OverlayMap<String> second = first.with("a", "3").with("c", "4");
+        OverlayMap<String> third = second.with("b", null).with("missing", null);
+
+        assertEquals("1", first.get("a"));
+        assertNull(first.get("c"));
+        assertEquals(2, first.size());
+        assertEquals("3", second.get("a"));
+        assertEquals("4", second.get("c"));
+        assertEquals(3, second.size());
+        assertNull(third.get("b"));
+        assertEquals(2, third.size());
+        assertEquals(List.of("3", "4"), sorted(third));
+    }
+
+    @Test
+    void thatRandomModificationsAgreeWithHashMap() {
+        Random random = new Random(42);
+        Map<String, String> expected = new HashMap<>();
+        OverlayMap<String> map = OverlayMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            String key = "key" + random.nextInt(300);
+            String value = random.nextInt(3) == 0 ? null : "value" + i;
+            if (value == null) {
+                expected.remove(key);
+            } else {
+                expected.put(key, value);
+            }
+            map = map.with(key, value);
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.size(), map.size());
+        }
+        List<String> expectedValues = new ArrayList<>(expected.values());
+        expectedValues.sort(null);
+        assertEquals(expectedValues, sorted(map));
+    }
+
+    static List<String> sorted(OverlayMap<String> map) {
+        List<String> values = new ArrayList<>(map.values());
+        values.sort(null);
+        return values;
+    }
+}
@@ -0,0 +1,72 @@
+package no.ssb.useraccess.access;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static no.ssb.useraccess.access.RolePathIndexTest.role;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PathPrefixTest {
+
+    static List<String> describe(List<PathPrefix> prefixes) {
+        return prefixes.stream()
+                .map(prefix -> prefix.getPrefix() + " - " + prefix.getExcludes())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void thatRolePrefixesSubtractExcludes() {
+        assertEquals(List.of("/a/ - [/a/private/]", "/b - []"), describe(PathPrefix.of(
+                role("r", List.of("/b", "/a/", "/c/d"), List.of("/a/private/", "/a/private/x", "/c/", "/x")))));
+        assertEquals(List.of("/ - [/ns/secret]"), describe(PathPrefix.of(role("everything", List.of(), List.of("/ns/secret")))));
+        assertEquals(List.of(), describe(PathPrefix.of(role("nothing", List.of("/ns/test"), List.of("")))));
+    }
+
+    @Test
+    void thatUnionDropsCoveredPrefixesAndExcludes() {
+        List<PathPrefix> union = PathPrefix.union(List.of(
+                new PathPrefix("/a/", List.of("/a/private/")),
+                new PathPrefix("/a/b/", List.of()),
+                new PathPrefix("/a/private/", List.of("/a/private/secret/")),
+                new PathPrefix("/c/", List.of("/c/x", "/c/y")),
+                new PathPrefix("/c/", List.of("/c/y/z"))));
+        assertEquals(List.of("/a/ - [/a/private/secret/]", "/c/ - [/c/y/z]"), describe(union));
+    }
+
+    @Test
+    void thatUnionMatchesAnyRoleForRandomRoles() {
+        String[] segments = {"a", "b", "c", "ab"};
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            List<CompiledRole> roles = new ArrayList<>();
+            for (int r = 0, n = 1 + random.nextInt(4); r < n; r++) {
+                roles.add(role("role" + r, randomPaths(random, segments, random.nextInt(3)), randomPaths(random, segments, random.nextInt(3))));
+            }
+            List<PathPrefix> union = PathPrefix.union(roles.stream()
+                    .flatMap(role -> PathPrefix.of(role).stream())
+                    .collect(Collectors.toList()));
+            for (String path : randomPaths(random, segments, 50)) {
+                boolean expected = roles.stream().anyMatch(role -> role.matchesPath(path));
+                boolean actual = union.stream().anyMatch(prefix -> prefix.matches(path));
+                assertEquals(expected, actual, () -> path + " roles " + roles.stream()
+                        .map(role -> role.getRole().getPaths().toString()).collect(Collectors.toList()) + " union " + describe(union));
+            }
+        }
+    }
+
+    static List<String> randomPaths(Random random, String[] segments, int count) {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder path = new StringBuilder();
+            for (int j = 0, n = 1 + random.nextInt(3); j < n; j++) {
+                path.append('/').append(segments[random.nextInt(segments.length)]);
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+}
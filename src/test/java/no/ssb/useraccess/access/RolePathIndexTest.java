@@ -0,0 +1,129 @@
+package no.ssb.useraccess.access;
+
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RolePathIndexTest {
+
+    static CompiledRole role(String roleId, List<String> includes, List<String> excludes) {
+        return CompiledRole.compile(Role.newBuilder()
+                .setRoleId(roleId)
+                .setPaths(PathSet.newBuilder().addAllIncludes(includes).addAllExcludes(excludes).build())
+                .build());
+    }
+
+    static List<String> candidates(RolePathIndex index, String path) {
+        return index.candidates(path).stream().map(CompiledRole::getRoleId).collect(Collectors.toList());
+    }
+
+    static List<String> roles(ResolvedUser resolvedUser, String path) {
+        List<String> roleIds = new ArrayList<>();
+        resolvedUser.forEachRole(path, role -> roleIds.add(role.getRoleId()));
+        return roleIds;
+    }
+
+    static boolean startsWithAny(String path, List<String> prefixes) {
+        return prefixes.stream().anyMatch(path::startsWith);
+    }
+
+    @Test
+    void thatCandidatesFollowIncludeAndExcludeSemantics() {
+        RolePathIndex index = new RolePathIndex(List.of(
+                role("someone", List.of("/user/someone/"), List.of("/user/someone/private/")),
+                role("someone-prefix", List.of("/user/someone"), List.of()),
+                role("everything", List.of(), List.of("/ns/secret")),
+                role("root", List.of("/"), List.of()),
+                role("nothing", List.of("/ns/test"), List.of(""))
+        ));
+        assertEquals(List.of("someone", "someone-prefix", "everything", "root"), candidates(index, "/user/someone/test1"));
+        assertEquals(List.of("someone-prefix", "everything", "root"), candidates(index, "/user/someone/private/x"));
+        assertEquals(List.of("someone-prefix", "everything", "root"), candidates(index, "/user/someone-else/test1"));
+        assertEquals(List.of("root"), candidates(index, "/ns/secret/data"));
+        assertEquals(List.of("everything", "root"), candidates(index, "/ns/test"));
+        assertEquals(List.of("everything"), candidates(index, ""));
+    }
+
+    @Test
+    void thatVisitStopsWhenVisitorReturnsFalse() {
+        RolePathIndex index = new RolePathIndex(List.of(
+                role("first", List.of("/a/"), List.of()),
+                role("second", List.of("/a/b/"), List.of()),
+                role("third", List.of(), List.of())));
+        List<String> visited = new ArrayList<>();
+        assertFalse(index.forEachCandidate("/a/b/c", role -> {
+            visited.add(role.getRoleId());
+            return !role.getRoleId().equals("second");
+        }));
+        assertEquals(List.of("first", "second"), visited);
+
+        // a visitor looking up another path gets its own bit sets
+        List<String> nested = new ArrayList<>();
+        assertTrue(index.forEachCandidate("/a/b/c", role -> nested.addAll(candidates(index, "/x"))));
+        assertEquals(List.of("third", "third", "third"), nested);
+    }
+
+    @Test
+    void thatCandidatesAgreeWithMatchPaths() {
+        Random random = new Random(42);
+        String[] segments = {"/", "a", "ab", "b/", "/c", "ns/", "x"};
+        List<CompiledRole> roles = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            roles.add(role("role" + i, randomPaths(random, segments), randomPaths(random, segments)));
+        }
+        RolePathIndex index = new RolePathIndex(roles);
+        for (int i = 0; i < 2000; i++) {
+            String path = randomPath(random, segments);
+            List<String> expected = roles.stream()
+                    .filter(role -> !startsWithAny(path, role.getRole().getPaths().getExcludesList())
+                            && (role.getRole().getPaths().getIncludesCount() == 0 || startsWithAny(path, role.getRole().getPaths().getIncludesList())))
+                    .map(CompiledRole::getRoleId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, candidates(index, path), path);
+        }
+    }
+
+    static List<String> randomPaths(Random random, String[] segments) {
+        List<String> paths = new ArrayList<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            paths.add(randomPath(random, segments));
+        }
+        return paths;
+    }
+
+    static String randomPath(Random random, String[] segments) {
+        StringBuilder path = new StringBuilder();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            path.append(segments[random.nextInt(segments.length)]);
+        }
+        return path.toString();
+    }
+
+    @Test
+    void thatResolvedUserScansUntilCachedAndThenIndexes() {
+        ResolvedUser resolvedUser = new ResolvedUser(User.newBuilder().setUserId("john").build(), List.of(), List.of(
+                role("someone", List.of("/user/someone/"), List.of("/user/someone/private/")),
+                role("everything", List.of(), List.of("/ns/secret")),
+                role("root", List.of("/"), List.of())));
+        List<String> expected = List.of("someone", "everything", "root");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, roles(resolvedUser, "/user/someone/test1"));
+            assertFalse(resolvedUser.isPathIndexed());
+        }
+        resolvedUser.markCached();
+        assertFalse(resolvedUser.isPathIndexed());
+        assertEquals(expected, roles(resolvedUser, "/user/someone/test1"));
+        assertTrue(resolvedUser.isPathIndexed());
+        assertEquals(List.of("root"), roles(resolvedUser, "/ns/secret/x"));
+    }
+}
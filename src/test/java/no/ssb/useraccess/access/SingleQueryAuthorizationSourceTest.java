@@ -0,0 +1,155 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Multi;
+import io.opentracing.noop.NoopSpan;
+import no.ssb.dapla.auth.dataset.protobuf.Group;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.useraccess.UserAccessApplication;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ExtendWith(IntegrationTestExtension.class)
+class SingleQueryAuthorizationSourceTest {
+    private static final Logger LOG = LoggerFactory.getLogger(SingleQueryAuthorizationSourceTest.class);
+
+    @Inject
+    UserAccessApplication application;
+
+    DatabaseAuthorizationSource databaseSource;
+    SingleQueryAuthorizationSource singleQuerySource;
+
+    @BeforeEach
+    void clearRepositories() {
+        Multi.concat(
+                application.get(UserRepository.class).deleteAllUsers(),
+                application.get(GroupRepository.class).deleteAllGroups(),
+                application.get(RoleRepository.class).deleteAllRoles())
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+        databaseSource = new DatabaseAuthorizationSource(application.get(UserRepository.class),
+                application.get(GroupRepository.class), application.get(RoleRepository.class));
+        singleQuerySource = new SingleQueryAuthorizationSource(application.get(AccessRepository.class),
+                application.get(UserRepository.class), application.get(GroupRepository.class), application.get(RoleRepository.class));
+    }
+
+    void createUser(String userId, List<String> roles, List<String> groups) {
+        User user = User.newBuilder().setUserId(userId).addAllRoles(roles).addAllGroups(groups).build();
+        application.get(UserRepository.class).createOrUpdateUser(user).await(3, TimeUnit.SECONDS);
+    }
+
+    void createGroup(String groupId, List<String> roles) {
+        Group group = Group.newBuilder().setGroupId(groupId).setDescription(groupId).addAllRoles(roles).build();
+        application.get(GroupRepository.class).createOrUpdateGroup(group).await(3, TimeUnit.SECONDS);
+    }
+
+    void createRole(String roleId) {
+        Role role = Role.newBuilder().setRoleId(roleId).setPaths(PathSet.newBuilder().addIncludes("/" + roleId + "/").build()).build();
+        application.get(RoleRepository.class).createOrUpdateRole(role).await(3, TimeUnit.SECONDS);
+    }
+
+    static void assertSameResolvedUser(ResolvedUser expected, ResolvedUser actual) {
+        assertEquals(expected.getUser(), actual.getUser());
+        assertEquals(expected.getGroups(), actual.getGroups());
+        assertEquals(roleIds(expected), roleIds(actual));
+    }
+
+    static List<String> roleIds(ResolvedUser resolvedUser) {
+        return resolvedUser.getRoles().stream().map(role -> role.getRole().getRoleId()).collect(Collectors.toList());
+    }
+
+    @Test
+    void thatSingleQueryResolvesTheSameAsTheQueryChain() {
+        createRole("direct");
+        createRole("shared");
+        createRole("via-group");
+        createRole("unused");
+        createGroup("group-a", List.of("shared", "via-group", "missing-role"));
+        createGroup("group-b", List.of("shared"));
+        createUser("alice", List.of("shared", "direct"), List.of("group-b", "group-a", "missing-group"));
+        createUser("bob", List.of(), List.of());
+        createUser("carol", List.of("missing-role"), List.of("group-b"));
+
+        for (String userId : List.of("alice", "bob", "carol")) {
+            ResolvedUser expected = databaseSource.resolveUser(NoopSpan.INSTANCE, userId).await(3, TimeUnit.SECONDS);
+            ResolvedUser actual = singleQuerySource.resolveUser(NoopSpan.INSTANCE, userId).await(3, TimeUnit.SECONDS);
+            assertSameResolvedUser(expected, actual);
+        }
+        assertEquals(List.of("direct", "shared", "via-group"),
+                roleIds(singleQuerySource.resolveUser(NoopSpan.INSTANCE, "alice").await(3, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void thatUnknownUserResolvesToEmpty() {
+        assertNull(singleQuerySource.resolveUser(NoopSpan.INSTANCE, "nobody").await(3, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Compares the latency of the query chain with the single query. Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkQueryChainAgainstSingleQuery() throws Exception {
+        int users = 1000;
+        int groupsPerUser = 3;
+        int rolesPerGroup = 3;
+        for (int i = 0; i < users * rolesPerGroup; i++) {
+            createRole("role-" + i);
+        }
+        for (int i = 0; i < users; i++) {
+            List<String> roles = new ArrayList<>();
+            for (int j = 0; j < rolesPerGroup; j++) {
+                roles.add("role-" + (i * rolesPerGroup + j));
+            }
+            createGroup("group-" + i, roles);
+        }
+        for (int i = 0; i < users; i++) {
+            List<String> groups = new ArrayList<>();
+            for (int j = 0; j < groupsPerUser; j++) {
+                groups.add("group-" + ((i + j) % users));
+            }
+            createUser("user-" + i, List.of("role-" + i), groups);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            // the first round warms up connections and the JIT
+            benchmark(round, "database", databaseSource, users, 1);
+            benchmark(round, "single-query", singleQuerySource, users, 1);
+            benchmark(round, "database", databaseSource, users, 32);
+            benchmark(round, "single-query", singleQuerySource, users, 32);
+        }
+    }
+
+    void benchmark(int round, String name, AuthorizationSource source, int users, int concurrency) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i += concurrency) {
+            List<CompletableFuture<ResolvedUser>> inFlight = new ArrayList<>();
+            for (int j = i; j < Math.min(i + concurrency, users); j++) {
+                inFlight.add(source.resolveUser(NoopSpan.INSTANCE, "user-" + j).toStage().toCompletableFuture());
+            }
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        LOG.info("round {} {} concurrency {}: {} users in {} ms, {} us per user",
+                round, name, concurrency, users, micros / 1000, micros / users);
+    }
+}
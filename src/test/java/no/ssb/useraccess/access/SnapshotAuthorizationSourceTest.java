@@ -0,0 +1,76 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.dbclient.DbClient;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import no.ssb.useraccess.UserAccessApplication;
+import no.ssb.useraccess.group.GroupRepository;
+import no.ssb.useraccess.role.RoleRepository;
+import no.ssb.useraccess.user.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@ExtendWith(IntegrationTestExtension.class)
+class SnapshotAuthorizationSourceTest {
+
+    @Inject
+    UserAccessApplication application;
+
+    DbClient dbClient;
+    UserRepository userRepository;
+    GroupRepository groupRepository;
+
+    @BeforeEach
+    void clearRepositories() {
+        dbClient = application.get(DbClient.class);
+        userRepository = new UserRepository(dbClient);
+        groupRepository = new GroupRepository(dbClient);
+        Multi.concat(
+                userRepository.deleteAllUsers(),
+                groupRepository.deleteAllGroups(),
+                new RoleRepository(dbClient).deleteAllRoles())
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the write when the roles are read, i.e. after the users and groups have been read by a reload.
+     */
+    RoleRepository writingWhenRolesAreRead(Runnable write) {
+        return new RoleRepository(dbClient) {
+            @Override
+            public Multi<Role> getRoleList(String roleIdPart) {
+                write.run();
+                return super.getRoleList(roleIdPart);
+            }
+        };
+    }
+
+    @Test
+    void thatChangesDuringReloadAreNotUndone() {
+        userRepository.createOrUpdateUser(User.newBuilder().setUserId("alice").addRoles("reader").build()).await(3, TimeUnit.SECONDS);
+        userRepository.createOrUpdateUser(User.newBuilder().setUserId("bob").build()).await(3, TimeUnit.SECONDS);
+        SnapshotAuthorizationSource source = new SnapshotAuthorizationSource(userRepository, groupRepository,
+                writingWhenRolesAreRead(() -> {
+                    userRepository.deleteUser("alice").await(3, TimeUnit.SECONDS);
+                    userRepository.createOrUpdateUser(User.newBuilder().setUserId("bob").addRoles("writer").build()).await(3, TimeUnit.SECONDS);
+                }));
+
+        AuthorizationSnapshot loaded = source.reload().await(3, TimeUnit.SECONDS);
+        assertNull(loaded.getUser("alice"));
+        assertNotNull(loaded.getUser("bob"));
+        assertEquals(1, loaded.getUser("bob").getRolesCount());
+        assertSame(loaded, source.getSnapshot());
+    }
+}
@@ -0,0 +1,94 @@
+package no.ssb.useraccess.access;
+
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import io.helidon.config.ConfigSources;
+import io.helidon.config.spi.ConfigNode;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.User;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+import no.ssb.useraccess.autocreate.AutoCreateService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnknownUserCacheTest {
+
+    /**
+     * Knows only the users added to it, counting the lookups.
+     */
+    static class KnownUsersSource implements AuthorizationSource {
+        final Set<String> userIds = ConcurrentHashMap.newKeySet();
+        final AtomicInteger lookupCount = new AtomicInteger();
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, String userId) {
+            lookupCount.incrementAndGet();
+            if (!userIds.contains(userId)) {
+                return Single.empty();
+            }
+            return resolveUser(span, User.newBuilder().setUserId(userId).build());
+        }
+
+        @Override
+        public Single<ResolvedUser> resolveUser(Span span, User user) {
+            return Single.just(new ResolvedUser(user, List.of(), List.of()));
+        }
+
+        @Override
+        public Single<AuthorizationSnapshot> snapshot(Span span) {
+            return Single.just(AuthorizationSnapshot.empty());
+        }
+    }
+
+    static AutoCreateService autoCreateService() {
+        return new AutoCreateService(Config.create(ConfigSources.create(
+                ConfigNode.ObjectNode.builder()
+                        .addValue("filename", "autocreate-test.yaml")
+                        .build())), null, null, null);
+    }
+
+    static boolean hasAccess(AccessService accessService, String userId) {
+        return accessService.hasAccess(NoopSpan.INSTANCE, userId, Privilege.READ, "/a", Valuation.OPEN, DatasetState.RAW).await();
+    }
+
+    @Test
+    void thatUnknownUserIsLookedUpOnceUntilCreated() {
+        KnownUsersSource source = new KnownUsersSource();
+        UnknownUserCache unknownUserCache = new UnknownUserCache(10, Duration.ofMinutes(1));
+        AccessService accessService = new AccessService(source, null, unknownUserCache, null, null, null, autoCreateService());
+
+        assertFalse(hasAccess(accessService, "service-account"));
+        assertFalse(hasAccess(accessService, "service-account"));
+        assertFalse(hasAccess(accessService, "service-account"));
+        assertEquals(1, source.lookupCount.get());
+        assertTrue(unknownUserCache.isUnknown("service-account"));
+
+        source.userIds.add("service-account");
+        unknownUserCache.userUpdated(User.newBuilder().setUserId("service-account").build());
+        assertFalse(unknownUserCache.isUnknown("service-account"));
+        assertFalse(hasAccess(accessService, "service-account"));
+        assertEquals(2, source.lookupCount.get());
+        assertFalse(unknownUserCache.isUnknown("service-account"));
+    }
+
+    @Test
+    void thatUserCreatedDuringLookupIsNotMarkedUnknown() {
+        UnknownUserCache unknownUserCache = new UnknownUserCache(10, Duration.ofMinutes(1));
+        long version = unknownUserCache.version();
+        unknownUserCache.userUpdated(User.newBuilder().setUserId("new-user").build());
+        unknownUserCache.markUnknown("new-user", version);
+        assertFalse(unknownUserCache.isUnknown("new-user"));
+    }
+}
@@ -0,0 +1,128 @@
+package no.ssb.useraccess.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import io.helidon.config.Config;
+import io.helidon.metrics.RegistryFactory;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import no.ssb.useraccess.UserAccessApplication;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.inject.Inject;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(IntegrationTestExtension.class)
+class AdaptivePoolSizerTest {
+
+    @Inject
+    UserAccessApplication application;
+
+    InstrumentedConnectionPool createPool(int maxSize) {
+        Config connectionConfig = application.get(Config.class).get("db.connection");
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(connectionConfig.get("url").asString().get());
+        hikariConfig.setUsername(connectionConfig.get("username").asString().get());
+        hikariConfig.setPassword(connectionConfig.get("password").asString().get());
+        // no minimum idle, so it defaults to the maximum size as in application.yaml
+        hikariConfig.setMaximumPoolSize(maxSize);
+        return new InstrumentedConnectionPool("adaptivePoolSizerTestPool", hikariConfig);
+    }
+
+    static void sleepInDatabase(InstrumentedConnectionPool pool, Duration duration) {
+        try (Connection connection = pool.connection(); Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_sleep(" + duration.toMillis() / 1000.0 + ")");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the given number of concurrent queries that each hold a connection for the duration.
+     *
+     * @return the highest number of open connections seen while they ran.
+     */
+    static int runConcurrently(InstrumentedConnectionPool pool, int queries, Duration duration) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(queries);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < queries; i++) {
+                running.add(executor.submit(() -> sleepInDatabase(pool, duration)));
+            }
+            int maxTotal = 0;
+            while (!running.stream().allMatch(Future::isDone)) {
+                maxTotal = Math.max(maxTotal, pool.pool().getTotalConnections());
+                Thread.sleep(10);
+            }
+            for (Future<?> query : running) {
+                query.get(30, TimeUnit.SECONDS);
+            }
+            return maxTotal;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void thatPoolGrowsWhileConnectionsAreWaitedForAndShrinksWhenIdle() throws Exception {
+        try (InstrumentedConnectionPool pool = createPool(2)) {
+            AdaptivePoolSizer sizer = new AdaptivePoolSizer(pool, 2, 6, 2, Duration.ofMillis(20));
+            long acquiredBefore = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION)
+                    .histogram("adaptivePoolSizerTestPoolAcquireMicros").getCount();
+
+            // 6 queries of 200 ms on 2 connections, so most of them wait for a connection
+            assertTrue(runConcurrently(pool, 6, Duration.ofMillis(200)) <= 2);
+            assertEquals(4, sizer.adjust());
+            assertEquals(4, pool.config().getMaximumPoolSize());
+            assertTrue(RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION)
+                    .histogram("adaptivePoolSizerTestPoolAcquireMicros").getCount() >= acquiredBefore + 6);
+
+            // still waiting with 4 connections, and the grown pool opens more than the initial 2 connections
+            assertTrue(runConcurrently(pool, 6, Duration.ofMillis(200)) > 2);
+            assertEquals(6, sizer.adjust());
+            assertTrue(runConcurrently(pool, 6, Duration.ofMillis(200)) > 4);
+            // takes the waits of the last burst, which cannot grow the pool beyond 6
+            assertEquals(6, sizer.adjust());
+            // the configured minimum idle is kept while it is below the maximum size
+            assertEquals(2, pool.config().getMinimumIdle());
+
+            // 2 of the open connections in use, which is less than half
+            int open = pool.pool().getTotalConnections();
+            try (Connection first = pool.connection(); Connection second = pool.connection()) {
+                assertEquals(4, sizer.adjust());
+                for (Connection connection : List.of(first, second)) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SELECT 1");
+                    }
+                }
+            }
+            // nothing was evicted, in use or idle: the idle connections above the new size retire after the idle
+            // timeout, which the pool only does while its minimum idle is below its maximum size
+            assertEquals(open, pool.pool().getTotalConnections());
+            assertTrue(pool.config().getMinimumIdle() < pool.config().getMaximumPoolSize());
+
+            assertEquals(2, sizer.adjust());
+            assertEquals(2, sizer.adjust());
+            assertEquals(2, pool.config().getMaximumPoolSize());
+            assertEquals(1, pool.config().getMinimumIdle());
+            assertEquals(open, pool.pool().getTotalConnections());
+
+            // growing again restores the configured minimum idle
+            runConcurrently(pool, 6, Duration.ofMillis(200));
+            assertEquals(4, sizer.adjust());
+            assertEquals(2, pool.config().getMinimumIdle());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package no.ssb.useraccess.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import io.helidon.dbclient.DbRow;
+import io.helidon.dbclient.DbStatements;
+import no.ssb.testing.helidon.IntegrationTestExtension;
+import no.ssb.useraccess.UserAccessApplication;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(IntegrationTestExtension.class)
+class BulkheadTest {
+
+    @Inject
+    UserAccessApplication application;
+
+    Bulkhead createBulkhead(String name, int size) {
+        return createBulkhead(name, size, 10);
+    }
+
+    Bulkhead createBulkhead(String name, int size, int queueSize) {
+        Config dbConfig = application.get(Config.class).get("db");
+        Config connectionConfig = dbConfig.get("connection");
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(connectionConfig.get("url").asString().get());
+        hikariConfig.setUsername(connectionConfig.get("username").asString().get());
+        hikariConfig.setPassword(connectionConfig.get("password").asString().get());
+        hikariConfig.setMaximumPoolSize(size);
+        return new Bulkhead(name, new InstrumentedConnectionPool(name + "Pool", hikariConfig),
+                DbStatements.create(dbConfig.get("statements")), size, queueSize);
+    }
+
+    static Single<List<DbRow>> sleepInDatabase(Bulkhead bulkhead, Duration duration) {
+        return bulkhead.getDbClient()
+                .execute(exec -> exec.query("SELECT pg_sleep(" + duration.toMillis() / 1000.0 + ")"))
+                .collectList();
+    }
+
+    @Test
+    void thatSaturatedBulkheadDoesNotDelayAnother() throws Exception {
+        try (Bulkhead listing = createBulkhead("testListing", 1); Bulkhead decision = createBulkhead("testDecision", 1)) {
+            CompletableFuture<List<DbRow>> holding = sleepInDatabase(listing, Duration.ofSeconds(2)).toCompletableFuture();
+            while (listing.getConnectionPool().pool().getActiveConnections() < 1) {
+                Thread.sleep(10);
+            }
+            CompletableFuture<List<DbRow>> queued = sleepInDatabase(listing, Duration.ZERO).toCompletableFuture();
+
+            assertEquals(1, sleepInDatabase(decision, Duration.ZERO).await(1, TimeUnit.SECONDS).size());
+            assertFalse(queued.isDone());
+
+            holding.get(10, TimeUnit.SECONDS);
+            assertEquals(1, queued.get(10, TimeUnit.SECONDS).size());
+        }
+    }
+
+    @Test
+    void thatCallsBeyondTheQueueAreRejected() throws Exception {
+        try (Bulkhead bulkhead = createBulkhead("testFull", 1, 1)) {
+            List<CompletableFuture<List<DbRow>>> calls = new ArrayList<>();
+            int rejected = 0;
+            for (int i = 0; i < 5; i++) {
+                try {
+                    calls.add(sleepInDatabase(bulkhead, Duration.ofMillis(500)).toCompletableFuture());
+                } catch (BulkheadFullException e) {
+                    rejected++; // the connection is requested on the JDBC threads too
+                }
+            }
+            for (CompletableFuture<List<DbRow>> call : calls) {
+                try {
+                    call.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertTrue(BulkheadFullException.causedBy(e), e.toString());
+                    rejected++;
+                }
+            }
+            assertTrue(rejected >= 3, "rejected " + rejected);
+        }
+    }
+}
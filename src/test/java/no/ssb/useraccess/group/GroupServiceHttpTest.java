@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -114,4 +115,20 @@ class GroupServiceHttpTest {
         client.delete("/group/group_to_be_deleted").expect200Ok();
         assertNull(getGroup("group_to_be_deleted"));
     }
+
+    @Test
+    void thatGetGroupAndGroupListParseToTheStoredGroups() throws JSONException {
+        createGroup("readers", "Readers of \"everything\"", List.of("reader", "lister"));
+        createGroup("writers", "", List.of());
+        List<Group> stored = application.get(GroupRepository.class).getAllGroups().collectList().await(3, TimeUnit.SECONDS);
+
+        assertEquals(getGroup("readers"), ProtobufJsonUtils.toPojo(client.get("/group/readers").expect200Ok().body(), Group.class));
+
+        JSONArray groups = new JSONObject(client.get("/group").expect200Ok().body()).getJSONArray("groups");
+        List<Group> listed = new ArrayList<>();
+        for (int i = 0; i < groups.length(); i++) {
+            listed.add(ProtobufJsonUtils.toPojo(groups.getJSONObject(i).toString(), Group.class));
+        }
+        assertEquals(stored, listed);
+    }
 }
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -78,6 +79,39 @@ class RoleServiceHttpTest {
         return application.get(RoleRepository.class).getRole(roleId).await();
     }
 
+    @Test
+    void thatGetRolesMatchingPathOnlyReadsRolesWithMatchingInclude() {
+        createRole("data", List.of(Privilege.READ), List.of("/data/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+        createRole("data-private", List.of(Privilege.READ), List.of("/data/private/", "/other/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+        createRole("everything", List.of(Privilege.READ), List.of(), Valuation.INTERNAL, List.of(DatasetState.RAW));
+        createRole("other", List.of(Privilege.READ), List.of("/other/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+
+        assertEquals(List.of("data", "data-private", "everything"), rolesMatchingPath("/data/private/x"));
+        assertEquals(List.of("data", "everything"), rolesMatchingPath("/data/"));
+        assertEquals(List.of("everything"), rolesMatchingPath("/data"));
+        assertEquals(List.of("data-private", "everything", "other"), rolesMatchingPath("/other/x"));
+    }
+
+    @Test
+    void thatGetRolesReadsAllRequestedRolesWithOneArrayParameter() {
+        createRole("o'brien", List.of(Privilege.READ), List.of("/a/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+        createRole("reader", List.of(Privilege.READ), List.of("/b/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+        createRole("writer", List.of(Privilege.CREATE), List.of("/c/"), Valuation.INTERNAL, List.of(DatasetState.RAW));
+
+        List<String> roleIds = application.get(RoleRepository.class).getRoles(List.of("writer", "missing", "o'brien", "writer"))
+                .map(Role::getRoleId)
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+        assertEquals(List.of("o'brien", "writer"), roleIds);
+    }
+
+    List<String> rolesMatchingPath(String path) {
+        return application.get(RoleRepository.class).getRolesMatchingPath(path)
+                .map(Role::getRoleId)
+                .collectList()
+                .await(3, TimeUnit.SECONDS);
+    }
+
     @Test
     void thatGetRoleWorks() {
         Role expectedRole = createRole("writer", List.of(Privilege.CREATE, Privilege.UPDATE),
@@ -149,4 +183,21 @@ class RoleServiceHttpTest {
         client.delete("/role/role_to_be_deleted").expect200Ok();
         assertNull(readRole("role_to_be_deleted"));
     }
+
+    @Test
+    void thatGetRoleAndRoleListParseToTheStoredRoles() throws JSONException {
+        createRole("writer", List.of(Privilege.CREATE, Privilege.UPDATE),
+                List.of("/ns/test", "/ns/other"), Valuation.SENSITIVE, List.of(DatasetState.RAW, DatasetState.INPUT));
+        createRole("reader", List.of(Privilege.READ), List.of(), Valuation.OPEN, List.of());
+        List<Role> stored = application.get(RoleRepository.class).getRoleList(null).collectList().await(3, TimeUnit.SECONDS);
+
+        assertEquals(readRole("writer"), ProtobufJsonUtils.toPojo(client.get("/role/writer").expect200Ok().body(), Role.class));
+
+        JSONArray roles = new JSONObject(client.get("/role").expect200Ok().body()).getJSONArray("roles");
+        List<Role> listed = new ArrayList<>();
+        for (int i = 0; i < roles.length(); i++) {
+            listed.add(ProtobufJsonUtils.toPojo(roles.getJSONObject(i).toString(), Role.class));
+        }
+        assertEquals(stored, listed);
+    }
 }
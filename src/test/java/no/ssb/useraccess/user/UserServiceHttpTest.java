@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -113,4 +114,21 @@ class UserServiceHttpTest {
         client.delete("/user/user_to_be_deleted").expect200Ok();
         assertNull(getUser("user_to_be_deleted"));
     }
+
+    @Test
+    void thatGetUserAndUserListParseToTheStoredUsers() throws JSONException {
+        createUser("john", List.of("reader", "writer"));
+        application.get(UserRepository.class).createOrUpdateUser(User.newBuilder().setUserId("jane").addGroups("readers").build())
+                .await(3, TimeUnit.SECONDS);
+        List<User> stored = application.get(UserRepository.class).getUserList(null).collectList().await(3, TimeUnit.SECONDS);
+
+        assertEquals(getUser("jane"), ProtobufJsonUtils.toPojo(client.get("/user/jane").expect200Ok().body(), User.class));
+
+        JSONArray users = new JSONObject(client.get("/user").expect200Ok().body()).getJSONArray("users");
+        List<User> listed = new ArrayList<>();
+        for (int i = 0; i < users.length(); i++) {
+            listed.add(ProtobufJsonUtils.toPojo(users.getJSONObject(i).toString(), User.class));
+        }
+        assertEquals(stored, listed);
+    }
 }
@@ -0,0 +1,73 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.common.reactive.Multi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchLoaderTest {
+
+    static final Set<String> EXISTING = Set.of("a", "b", "c", "d", "e");
+
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    final List<List<String>> loadedBatches = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    Multi<String> load(List<String> ids) {
+        loadedBatches.add(ids);
+        return Multi.create(ids.stream().filter(EXISTING::contains).collect(Collectors.toList()));
+    }
+
+    static CompletableFuture<List<String>> request(BatchLoader<String> loader, String... ids) {
+        return loader.load(List.of(ids)).collectList().toStage().toCompletableFuture();
+    }
+
+    @Test
+    void thatRequestsWithinWindowShareOneLoad() throws Exception {
+        BatchLoader<String> loader = new BatchLoader<>("test", this::load, id -> id, scheduler, Duration.ofMillis(50), 100);
+        CompletableFuture<List<String>> first = request(loader, "c", "a", "x");
+        CompletableFuture<List<String>> second = request(loader, "b", "a");
+        assertEquals(List.of("a", "c"), first.get(1, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b"), second.get(1, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("a", "b", "c", "x")), loadedBatches);
+    }
+
+    @Test
+    void thatFullBatchIsLoadedWithoutWaiting() throws Exception {
+        BatchLoader<String> loader = new BatchLoader<>("test", this::load, id -> id, scheduler, Duration.ofHours(1), 3);
+        CompletableFuture<List<String>> first = request(loader, "a", "b");
+        CompletableFuture<List<String>> second = request(loader, "d");
+        assertEquals(List.of("a", "b"), first.get(1, TimeUnit.SECONDS));
+        assertEquals(List.of("d"), second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, loadedBatches.size());
+    }
+
+    @Test
+    void thatLoadFailureFailsEveryCaller() {
+        BatchLoader<String> loader = new BatchLoader<>("test", ids -> Multi.error(new RuntimeException("database down")),
+                id -> id, scheduler, Duration.ofMillis(1), 100);
+        List<CompletableFuture<List<String>>> requests = new ArrayList<>();
+        requests.add(request(loader, "a"));
+        requests.add(request(loader, "b"));
+        for (CompletableFuture<List<String>> request : requests) {
+            assertThrows(Exception.class, () -> request.get(1, TimeUnit.SECONDS));
+        }
+    }
+}
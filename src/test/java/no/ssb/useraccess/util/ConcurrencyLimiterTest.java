@@ -0,0 +1,103 @@
+package no.ssb.useraccess.util;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+
+    static final long FAST = Duration.ofMillis(10).toNanos();
+    static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    static ConcurrencyLimiter createLimiter(int initialLimit) {
+        return new ConcurrencyLimiter("test", initialLimit, 2, 8, Duration.ofMillis(100), 0.5);
+    }
+
+    /**
+     * Acquires up to the limit and releases all with the given latency.
+     */
+    static void runAtLimit(ConcurrencyLimiter limiter, long latencyNanos) {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(latencyNanos, false);
+        }
+    }
+
+    @Test
+    void thatRequestsBeyondLimitAreShed() {
+        ConcurrencyLimiter limiter = createLimiter(2);
+        long shedBefore = RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("testShedCount").getCount();
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(shedBefore + 1, RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION).counter("testShedCount").getCount());
+
+        limiter.release(FAST, false);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void thatLimitGrowsWhileFastAndBacksOffWhenSlow() {
+        ConcurrencyLimiter limiter = createLimiter(2);
+        for (int i = 0; i < 3; i++) {
+            runAtLimit(limiter, FAST);
+        }
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 20; i++) {
+            runAtLimit(limiter, FAST);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        // a burst of slow requests backs off once, and a request started after that once more
+        runAtLimit(limiter, SLOW);
+        assertEquals(4, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        limiter.release(0, true);
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void thatFailuresBackOff() {
+        ConcurrencyLimiter limiter = createLimiter(8);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(FAST, true);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void thatInvalidRequestsLeaveLimitAlone() {
+        ConcurrencyLimiter limiter = createLimiter(4);
+        assertTrue(limiter.tryAcquire());
+        limiter.release();
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void thatLimitDoesNotGrowWhileMostlyUnused() {
+        ConcurrencyLimiter limiter = createLimiter(4);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void thatInvalidLimitsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter("test", 1, 2, 8, Duration.ofMillis(100), 0.5));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter("test", 4, 2, 8, Duration.ofMillis(100), 1.0));
+    }
+}
@@ -0,0 +1,61 @@
+package no.ssb.useraccess.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EntityCacheTest {
+
+    @Test
+    void thatReadIsDiscardedWhenCacheWasWrittenDuringRead() {
+        EntityCache<String> cache = new EntityCache<>(10, Duration.ofMinutes(1));
+        long version = cache.version();
+        cache.put("felles", "new");
+        cache.putIfUnchanged("felles", "old", version);
+        assertEquals("new", cache.get("felles"));
+
+        version = cache.version();
+        cache.remove("felles");
+        cache.putIfUnchanged("felles", "old", version);
+        assertNull(cache.get("felles"));
+
+        version = cache.version();
+        cache.putIfUnchanged("felles", "current", version);
+        assertEquals("current", cache.get("felles"));
+    }
+
+    @Test
+    void thatLeastRecentlyUsedEntityIsEvicted() {
+        EntityCache<String> cache = new EntityCache<>(2, Duration.ofMinutes(1));
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void thatDisabledCacheHoldsNothing() {
+        EntityCache<String> cache = EntityCache.disabled();
+        cache.put("a", "A");
+        cache.putIfUnchanged("b", "B", cache.version());
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void thatExpiredEntityIsDiscarded() throws InterruptedException {
+        EntityCache<String> cache = new EntityCache<>(10, Duration.ofMillis(1));
+        cache.put("a", "A");
+        Thread.sleep(10);
+        assertNull(cache.get("a"));
+    }
+}
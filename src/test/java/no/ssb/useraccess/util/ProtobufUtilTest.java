@@ -0,0 +1,88 @@
+package no.ssb.useraccess.util;
+
+import no.ssb.dapla.auth.dataset.protobuf.DatasetState;
+import no.ssb.dapla.auth.dataset.protobuf.DatasetStateSet;
+import no.ssb.dapla.auth.dataset.protobuf.PathSet;
+import no.ssb.dapla.auth.dataset.protobuf.Privilege;
+import no.ssb.dapla.auth.dataset.protobuf.PrivilegeSet;
+import no.ssb.dapla.auth.dataset.protobuf.Role;
+import no.ssb.dapla.auth.dataset.protobuf.Valuation;
+import no.ssb.helidon.media.protobuf.ProtobufJsonUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProtobufUtilTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ProtobufUtilTest.class);
+
+    static Role role(String roleId) {
+        return Role.newBuilder()
+                .setRoleId(roleId)
+                .setDescription("Reads and writes the internal raw data of " + roleId)
+                .setPrivileges(PrivilegeSet.newBuilder()
+                        .addAllIncludes(List.of(Privilege.READ, Privilege.CREATE, Privilege.UPDATE))
+                        .build())
+                .setPaths(PathSet.newBuilder()
+                        .addAllIncludes(List.of("/ssb/" + roleId + "/", "/shared/"))
+                        .addAllExcludes(List.of("/ssb/" + roleId + "/private/"))
+                        .build())
+                .setMaxValuation(Valuation.INTERNAL)
+                .setStates(DatasetStateSet.newBuilder()
+                        .addAllIncludes(List.of(DatasetState.RAW, DatasetState.INPUT))
+                        .build())
+                .build();
+    }
+
+    @Test
+    void thatStoredBytesParseToTheSameRoleAsTheJsonDocument() {
+        Role role = role("felles");
+        Role fromJson = ProtobufJsonUtils.toPojo(ProtobufJsonUtils.toString(role), Role.class);
+        assertEquals(role, ProtobufUtil.parse(role.toByteArray(), Role.parser()));
+        assertEquals(fromJson, ProtobufUtil.parse(fromJson.toByteArray(), Role.parser()));
+    }
+
+    @Test
+    void thatInvalidBytesAreRejected() {
+        assertThrows(IllegalStateException.class, () -> ProtobufUtil.parse(new byte[]{(byte) 0xFF}, Role.parser()));
+    }
+
+    /**
+     * Compares parsing the JSON document, as read before the proto column, with parsing the binary document. Run with
+     * -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkJsonAgainstBinaryParsing() {
+        int roles = 10000;
+        String[] json = new String[roles];
+        byte[][] proto = new byte[roles][];
+        for (int i = 0; i < roles; i++) {
+            Role role = role("role-" + i);
+            json[i] = ProtobufJsonUtils.toString(role);
+            proto[i] = role.toByteArray();
+        }
+        for (int round = 0; round < 5; round++) {
+            // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            for (String doc : json) {
+                ProtobufJsonUtils.toPojo(doc, Role.class);
+            }
+            long jsonNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] doc : proto) {
+                ProtobufUtil.parse(doc, Role.parser());
+            }
+            long protoNanos = System.nanoTime() - start;
+            LOG.info("round {}: {} roles, json {} ms ({} ns per role), proto {} ms ({} ns per role)",
+                    round, roles, TimeUnit.NANOSECONDS.toMillis(jsonNanos), jsonNanos / roles,
+                    TimeUnit.NANOSECONDS.toMillis(protoNanos), protoNanos / roles);
+        }
+    }
+}